@@ -1,87 +1,194 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 import javax.swing.*;
 import javax.swing.border.*;
 
 public class FireBrigadeDashboard extends JFrame {
     private TabbedMainPanel tabbedPanel;
     private SocketClient socketClient;
+    private JLabel mapStatus, serverStatus;
 
-    public FireBrigadeDashboard() {
+    // The window comes up straight away with a loading screen while the map
+    // loads and the server connection is made, each on its own thread; the
+    // tabs replace the loading screen once the engine is ready
+    public FireBrigadeDashboard(CompletableFuture<DispatchEngine> engine) {
         try {
             setTitle("Islamabad Fire Brigade System - Real-time Dashboard");
             setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
             setSize(1600, 900);
             setLocationRelativeTo(null);
             setExtendedState(JFrame.MAXIMIZED_BOTH);
+            add(createLoadingPanel());
+            setVisible(true);
+            Log.info("GUI", "Window made visible, loading...");
 
-            // Connect to C++ Server
-            System.out.println("\n===================================");
-            System.out.println("Connecting to C++ Backend Server...");
-            System.out.println("===================================\n");
-
-            socketClient = new SocketClient("127.0.0.1", 5000, new SocketClient.ClientListener() {
-                @Override
-                public void onConnected(String welcomeMessage) {
-                    System.out.println("\n===================================");
-                    System.out.println("SUCCESS! Connected to C++ Server!");
-                    System.out.println("===================================");
-                    System.out.println("Message: " + welcomeMessage);
-                    System.out.println("===================================\n");
+            CompletableFuture<SocketClient> connection = CompletableFuture.supplyAsync(this::connectToServer, startupThread("server-connect"));
+            connection.thenAccept(client -> SwingUtilities.invokeLater(() -> serverStatus.setText(client.isConnected()
+                ? "Connected to dispatch server" : "Dispatch server offline - running locally")));
+            engine.thenAcceptBoth(connection, DispatchEngine::setUpstream);
+            engine.whenComplete((ready, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    Log.error("GUI", "Dispatch engine failed to start", error);
+                    mapStatus.setText("Could not load the map: " + error.getMessage());
+                } else {
+                    showDashboard(ready);
                 }
+            }));
+        } catch (Exception e) {
+            Log.error("GUI", "GUI initialization failed", e);
+            JOptionPane.showMessageDialog(null, "ERROR: " + e.getMessage(), "Critical Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
 
-                @Override
-                public void onDisconnected() {
-                    System.out.println("\nDISCONNECTED from server\n");
-                }
+    private JPanel createLoadingPanel() {
+        JPanel loading = new JPanel(new GridBagLayout());
+        loading.setBackground(new Color(10, 15, 25));
+        JPanel column = new JPanel(new GridLayout(0, 1, 0, 12));
+        column.setOpaque(false);
 
-                @Override
-                public void onMessageReceived(String message) {
-                    System.out.println("[SERVER] " + message);
-                }
+        JLabel title = new JLabel("ISLAMABAD FIRE BRIGADE", JLabel.CENTER);
+        title.setFont(new Font("Arial", Font.BOLD, 28));
+        title.setForeground(new Color(80, 180, 255));
+        mapStatus = new JLabel("Loading map and road graph...", JLabel.CENTER);
+        serverStatus = new JLabel("Connecting to dispatch server...", JLabel.CENTER);
+        for (JLabel label : new JLabel[]{mapStatus, serverStatus}) {
+            label.setFont(new Font("Arial", Font.PLAIN, 15));
+            label.setForeground(new Color(200, 240, 255));
+        }
+        JProgressBar progress = new JProgressBar();
+        progress.setIndeterminate(true);
 
-                @Override
-                public void onError(String error) {
-                    System.out.println("\n[ERROR] " + error);
-                }
-            });
+        column.add(title);
+        column.add(mapStatus);
+        column.add(serverStatus);
+        column.add(progress);
+        loading.add(column);
+        return loading;
+    }
 
-            boolean connected = socketClient.connect();
-            if (!connected) {
-                System.out.println("\n[FATAL] Could not connect to C++ server!");
-                System.out.println("Make sure: 1) Server is running");
-                System.out.println("           2) Port 5000 is not blocked");
-                System.out.println("           3) Firewall allows connection\n");
+    private void showDashboard(DispatchEngine engine) {
+        Log.info("GUI", "Initializing TabbedMainPanel...");
+        tabbedPanel = new TabbedMainPanel(engine);
+        getContentPane().removeAll();
+        add(tabbedPanel);
+        revalidate();
+        repaint();
+        Log.info("GUI", "Dashboard ready");
+        LoadGenerator.startIfConfigured(engine);
+    }
+
+    private SocketClient connectToServer() {
+        Log.info("GUI", "Connecting to C++ backend server");
+        socketClient = new SocketClient("127.0.0.1", 5000, new SocketClient.ClientListener() {
+            @Override
+            public void onConnected(String welcomeMessage) {
+                Log.info("GUI", "Connected to C++ server", "welcome", welcomeMessage);
             }
 
-            System.out.println("[GUI] Initializing TabbedMainPanel...");
-            tabbedPanel = new TabbedMainPanel(socketClient);
-            System.out.println("[GUI] TabbedMainPanel created successfully");
-            
-            add(tabbedPanel);
-            System.out.println("[GUI] Panel added to frame");
-            
-            setVisible(true);
-            System.out.println("[GUI] Window made visible - READY!");
-        } catch (Exception e) {
-            System.out.println("[CRITICAL ERROR] GUI initialization failed!");
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(null, "ERROR: " + e.getMessage(), "Critical Error", JOptionPane.ERROR_MESSAGE);
+            @Override
+            public void onDisconnected() {
+                Log.warn("GUI", "Disconnected from server");
+            }
+
+            @Override
+            public void onMessageReceived(String message) {
+                // Counted by SocketClient; nothing in the UI consumes replies yet
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.error("GUI", "Server connection error", "reason", error);
+            }
+        });
+
+        boolean connected = socketClient.connect();
+        if (!connected) {
+            Log.error("GUI", "Could not connect to C++ server; check that it is running and port 5000 is reachable");
         }
+        return socketClient;
+    }
+
+    static Executor startupThread(String name) {
+        return task -> {
+            Thread t = new Thread(task, name);
+            t.setDaemon(true);
+            t.start();
+        };
     }
 
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new FireBrigadeDashboard());
+        CompletableFuture<DispatchEngine> engine = CompletableFuture.supplyAsync(DispatchEngine::start, startupThread("map-loader"));
+        SwingUtilities.invokeLater(() -> new FireBrigadeDashboard(engine));
     }
 }
 
+// Only the map tab is built up front. The others are placeholders until
+// first selected, so their construction (and their refresh timers) cost
+// nothing for tabs nobody opens.
 class TabbedMainPanel extends JPanel {
     private JTabbedPane tabbedPane;
     private AdvancedMapPanel mapPanel;
@@ -89,103 +196,121 @@ class TabbedMainPanel extends JPanel {
     private IncidentsPanel incidentsPanel;
     private StationsPanel stationsPanel;
     private AnalyticsPanel analyticsPanel;
-    private SocketClient socketClient;
+    private final HashMap<Integer, Supplier<JComponent>> pendingTabs = new HashMap<>();
 
-    public TabbedMainPanel(SocketClient socketClient) {
-        this.socketClient = socketClient;
+    public TabbedMainPanel(DispatchEngine engine) {
         setLayout(new BorderLayout());
-        System.out.println("[PANEL] Creating TabbedMainPanel");
+        Log.info("PANEL", "Creating TabbedMainPanel");
         
         try {
-            System.out.println("[PANEL] Creating AdvancedMapPanel...");
-            mapPanel = new AdvancedMapPanel(socketClient);
-            System.out.println("[PANEL] AdvancedMapPanel created");
-            
-            System.out.println("[PANEL] Creating StatsPanel...");
-            statsPanel = new StatsPanel(mapPanel);
-            System.out.println("[PANEL] StatsPanel created");
-            
-            System.out.println("[PANEL] Creating IncidentsPanel...");
-            incidentsPanel = new IncidentsPanel(mapPanel);
-            System.out.println("[PANEL] IncidentsPanel created");
-            
-            System.out.println("[PANEL] Creating StationsPanel...");
-            stationsPanel = new StationsPanel(mapPanel);
-            System.out.println("[PANEL] StationsPanel created");
-            
-            System.out.println("[PANEL] Creating AnalyticsPanel...");
-            analyticsPanel = new AnalyticsPanel(mapPanel);
-            System.out.println("[PANEL] AnalyticsPanel created");
+            Log.info("PANEL", "Creating AdvancedMapPanel...");
+            mapPanel = new AdvancedMapPanel(engine);
+            Log.info("PANEL", "AdvancedMapPanel created");
 
-            System.out.println("[PANEL] Creating TabbedPane...");
+            Log.info("PANEL", "Creating TabbedPane...");
             tabbedPane = new JTabbedPane();
             tabbedPane.setBackground(new Color(245, 245, 245));
             tabbedPane.setForeground(new Color(40, 40, 40));
             tabbedPane.setFont(new Font("Arial", Font.BOLD, 14));
 
-            System.out.println("[PANEL] Adding tabs to TabbedPane...");
+            Log.info("PANEL", "Adding tabs to TabbedPane...");
             tabbedPane.addTab("Map", mapPanel);
-            tabbedPane.addTab("Dashboard", statsPanel);
-            tabbedPane.addTab("Incidents", incidentsPanel);
-            tabbedPane.addTab("Stations", stationsPanel);
-            tabbedPane.addTab("Analytics", analyticsPanel);
+            addLazyTab("Dashboard", () -> statsPanel = new StatsPanel(engine));
+            addLazyTab("Incidents", () -> incidentsPanel = new IncidentsPanel(engine));
+            addLazyTab("Stations", () -> stationsPanel = new StationsPanel(engine));
+            addLazyTab("Analytics", () -> analyticsPanel = new AnalyticsPanel(engine));
+            tabbedPane.addChangeListener(e -> buildTab(tabbedPane.getSelectedIndex()));
 
-            System.out.println("[PANEL] Adding TabbedPane to main panel...");
+            Log.info("PANEL", "Adding TabbedPane to main panel...");
             add(tabbedPane, BorderLayout.CENTER);
-            System.out.println("[PANEL] TabbedMainPanel fully initialized!");
+            Log.info("PANEL", "TabbedMainPanel fully initialized!");
         } catch (Exception e) {
-            System.out.println("[PANEL ERROR] Exception during UI creation: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("PANEL", "Exception during UI creation", e);
             
             // Create minimal fallback UI
-            System.out.println("[PANEL] Creating fallback UI...");
+            Log.info("PANEL", "Creating fallback UI...");
             JLabel errorLabel = new JLabel("Error initializing panels: " + e.getMessage());
             errorLabel.setFont(new Font("Arial", Font.PLAIN, 16));
             errorLabel.setHorizontalAlignment(JLabel.CENTER);
             add(errorLabel, BorderLayout.CENTER);
         }
     }
+
+    private void addLazyTab(String title, Supplier<JComponent> factory) {
+        tabbedPane.addTab(title, new JPanel());
+        pendingTabs.put(tabbedPane.getTabCount() - 1, factory);
+    }
+
+    private void buildTab(int index) {
+        Supplier<JComponent> factory = pendingTabs.remove(index);
+        if (factory == null) return;
+        long start = System.currentTimeMillis();
+        try {
+            tabbedPane.setComponentAt(index, factory.get());
+            Log.info("PANEL", "Built tab", "tab", tabbedPane.getTitleAt(index), "ms", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            Log.error("PANEL", "Could not build tab", "tab", tabbedPane.getTitleAt(index), e);
+            tabbedPane.setComponentAt(index, new JLabel("Error initializing panel: " + e.getMessage(), JLabel.CENTER));
+        }
+    }
 }
 
+// Map view over a DispatchEngine: drawing, viewport and the click and
+// road dialogs. All dispatch state lives in the engine.
 class AdvancedMapPanel extends JPanel {
-    private ArrayList<FireStation> stations = new ArrayList<>();
-    private ArrayList<Incident> incidents = new ArrayList<>();
-    private ArrayList<RoadNetwork> roadNetwork = new ArrayList<>();
-    private GraphDS graph;
-    private SocketClient socketClient;
+    private final DispatchEngine engine;
+    private final List<FireStation> stations;
+    private final List<RoadNetwork> roadNetwork;
+    private final UnitRoster roster;
+    private final TelemetryPipeline telemetry;
+    private final GraphDS graph;
+    private final double[] nodeLats, nodeLons;
+    private final RoadIndex roadIndex;
+    private final CoverageEngine coverage;
+    private boolean showCoverage = false;
+    private boolean showDebug = false;
     private double zoomLevel = 13.0;
     private double centerLat = 33.6844;
     private double centerLon = 73.0479;
     private int animationFrame = 0;
-    private ArrayList<Integer> currentRoute = new ArrayList<>();
-    private ArrayList<double[]> routeCoordinates = new ArrayList<>();
     private int respondingStationId = -1;
     private Point lastMousePos;
 
-    public AdvancedMapPanel(SocketClient socketClient) {
+    public AdvancedMapPanel(DispatchEngine engine) {
+        this.engine = engine;
+        this.stations = engine.getStations();
+        this.roadNetwork = engine.getRoads();
+        this.roster = engine.getRoster();
+        this.telemetry = engine.getTelemetry();
+        this.graph = engine.getGraph();
+        this.nodeLats = engine.getNodeLats();
+        this.nodeLons = engine.getNodeLons();
+        this.roadIndex = engine.getRoadIndex();
+        this.coverage = engine.getCoverage();
         try {
-            System.out.println("[MAP] Initializing AdvancedMapPanel");
-            this.socketClient = socketClient;
+            Log.info("MAP", "Initializing AdvancedMapPanel");
             setBackground(new Color(10, 15, 25));
             setBorder(new LineBorder(new Color(30, 50, 80), 3));
             setPreferredSize(new Dimension(800, 600));
 
-            System.out.println("[MAP] Initializing stations and roads...");
-            initializeStations();
-            initializeRoads();
-            System.out.println("[MAP] Creating graph...");
-            graph = new GraphDS(stations.size());
-            buildGraph();
-            System.out.println("[MAP] Starting animation timer...");
+            // Engine callbacks arrive on its threads
+            engine.addListener(incident -> SwingUtilities.invokeLater(() -> {
+                respondingStationId = incident.respondingStation;
+                repaint();
+            }));
+            Log.info("MAP", "Starting animation timer...");
+
             startAnimation();
 
-            System.out.println("[MAP] Adding mouse listeners...");
+            Log.info("MAP", "Adding mouse listeners...");
             addMouseListener(new MouseAdapter() {
                 @Override
                 public void mouseClicked(MouseEvent e) {
                     if (SwingUtilities.isLeftMouseButton(e)) {
                         double[] coords = screenToLatLon(e.getX(), e.getY());
                         handleMapClick(coords[0], coords[1]);
+                    } else if (SwingUtilities.isRightMouseButton(e)) {
+                        handleRoadClick(e.getX(), e.getY());
                     }
                 }
                 @Override
@@ -208,43 +333,31 @@ class AdvancedMapPanel extends JPanel {
             }
             });
 
+            getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke('c'), "toggleCoverage");
+            getActionMap().put("toggleCoverage", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    showCoverage = !showCoverage;
+                    repaint();
+                }
+            });
+            getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke('d'), "toggleDebug");
+            getActionMap().put("toggleDebug", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    showDebug = !showDebug;
+                    repaint();
+                }
+            });
+
             addMouseWheelListener(e -> {
                 zoomLevel -= (e.getWheelRotation() * 0.5);
                 zoomLevel = Math.max(11, Math.min(18, zoomLevel));
                 repaint();
             });
-            System.out.println("[MAP] AdvancedMapPanel fully initialized!");
+            Log.info("MAP", "AdvancedMapPanel fully initialized!");
         } catch (Exception e) {
-            System.out.println("[MAP ERROR] Failed to initialize: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    private void initializeStations() {
-        stations.add(new FireStation(0, "Main Station", 33.6844, 73.0479));
-        stations.add(new FireStation(1, "Blue Area", 33.7182, 73.0605));
-        stations.add(new FireStation(2, "G-6 Sector", 33.7100, 73.0800));
-        stations.add(new FireStation(3, "Margalla Road", 33.7400, 73.0900));
-        stations.add(new FireStation(4, "Airport Road", 33.6167, 73.0992));
-    }
-
-    private void initializeRoads() {
-        roadNetwork.add(new RoadNetwork(0, 1, "Constitution Ave", 33.6844, 73.0479, 33.7182, 73.0605, 6, 18));
-        roadNetwork.add(new RoadNetwork(0, 3, "Margalla Road", 33.6844, 73.0479, 33.7400, 73.0900, 8, 16));
-        roadNetwork.add(new RoadNetwork(1, 2, "Jinnah Avenue", 33.7182, 73.0605, 33.7100, 73.0800, 5, 14));
-        roadNetwork.add(new RoadNetwork(1, 4, "Srinagar Highway", 33.7182, 73.0605, 33.6167, 73.0992, 12, 20));
-        roadNetwork.add(new RoadNetwork(2, 3, "G-6 Link Road", 33.7100, 73.0800, 33.7400, 73.0900, 7, 12));
-        roadNetwork.add(new RoadNetwork(3, 4, "Northern Bypass", 33.7400, 73.0900, 33.6167, 73.0992, 15, 18));
-        roadNetwork.add(new RoadNetwork(0, 2, "Main Expressway", 33.6844, 73.0479, 33.7100, 73.0800, 9, 22));
-        roadNetwork.add(new RoadNetwork(0, 4, "Airport Highway", 33.6844, 73.0479, 33.6167, 73.0992, 18, 26));
-        roadNetwork.add(new RoadNetwork(1, 3, "Blue Area Link", 33.7182, 73.0605, 33.7400, 73.0900, 10, 14));
-        roadNetwork.add(new RoadNetwork(2, 4, "Scenic Route", 33.7100, 73.0800, 33.6167, 73.0992, 16, 20));
-    }
-
-    private void buildGraph() {
-        for (RoadNetwork road : roadNetwork) {
-            graph.addEdge(road.from, road.to, road.distance);
-            graph.addEdge(road.to, road.from, road.distance);
+            Log.error("MAP", "Failed to initialize", e);
         }
     }
 
@@ -300,41 +413,58 @@ class AdvancedMapPanel extends JPanel {
 
             if (severity != null) {
                 int sevLevel = severity.equals("Low") ? 1 : (severity.equals("Medium") ? 2 : 3);
-                int nearestStation = findNearestStation(lat, lon);
+                engine.reportIncident(lat, lon, sevLevel);
+            }
+        }
+    }
 
-                Incident incident = new Incident(nearestStation, sevLevel, lat, lon);
-                incidents.add(incident);
+    // Right-click on a road to close, reopen or re-time it
+    private void handleRoadClick(int x, int y) {
+        RoadNetwork road = findRoadAt(x, y);
+        if (road == null) return;
 
-                respondingStationId = nearestStation;
-                currentRoute = graph.dijkstra(nearestStation);
-                buildRouteCoordinates();
+        boolean closed = graph.isBlocked(road.from, road.to);
+        int cost = graph.edgeWeight(road.from, road.to);
+        String[] options = {closed ? "Reopen Road" : "Close Road", "Set Travel Cost", "Cancel"};
+        int choice = JOptionPane.showOptionDialog(this,
+            String.format("%s\nTravel cost: %d m%s", road.name, cost, closed ? " (CLOSED)" : ""),
+            "Road Status", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
 
-                // Send to C++ server
-                if (socketClient != null && socketClient.isConnected()) {
-                    socketClient.reportIncident(nearestStation, sevLevel, lat, lon);
+        if (choice == 0) {
+            engine.setRoadClosed(road, !closed);
+        } else if (choice == 1) {
+            String value = JOptionPane.showInputDialog(this, "New travel cost for " + road.name + " (m):", cost);
+            try {
+                int newCost = Integer.parseInt(value.trim());
+                if (newCost > 0) {
+                    engine.setRoadCost(road, newCost);
                 }
-
-                repaint();
+            } catch (NumberFormatException | NullPointerException e) {
+                // Dialog cancelled or not a number; leave the road as it was
             }
         }
+        repaint();
     }
 
-    private void buildRouteCoordinates() {
-        routeCoordinates.clear();
-        for (int stationId : currentRoute) {
-            FireStation station = stations.get(stationId);
-            routeCoordinates.add(new double[]{station.latitude, station.longitude});
-        }
-    }
+    private RoadNetwork findRoadAt(int x, int y) {
+        double scale = Math.pow(2, zoomLevel);
+        double offX = lngToPixel(centerLon, zoomLevel) - getWidth() / 2.0;
+        double offY = latToPixel(centerLat, zoomLevel) - getHeight() / 2.0;
+        double tolerance = 15;
+        double wx = (x + offX) / scale, wy = (y + offY) / scale, wt = tolerance / scale;
 
-    private int findNearestStation(double lat, double lon) {
-        int nearest = 0;
-        double minDist = Double.MAX_VALUE;
-        for (FireStation s : stations) {
-            double dist = Math.hypot(s.latitude - lat, s.longitude - lon) * 111;
-            if (dist < minDist) {
-                minDist = dist;
-                nearest = s.id;
+        RoadNetwork nearest = null;
+        double best = tolerance;
+        double roadX = offX - roadIndex.originX() * scale, roadY = offY - roadIndex.originY() * scale;
+        for (int id : roadIndex.query(wx - wt, wy - wt, wx + wt, wy + wt)) {
+            float[] pts = roadIndex.geometry(id, zoomLevel);
+            for (int i = 2; i < pts.length; i += 2) {
+                double d = Line2D.ptSegDist(pts[i - 2] * scale - roadX, pts[i - 1] * scale - roadY,
+                                            pts[i] * scale - roadX, pts[i + 1] * scale - roadY, x, y);
+                if (d < best) {
+                    best = d;
+                    nearest = roadNetwork.get(id);
+                }
             }
         }
         return nearest;
@@ -350,17 +480,22 @@ class AdvancedMapPanel extends JPanel {
 
     @Override
     protected void paintComponent(Graphics g) {
+        long started = Instrumentation.start();
         super.paintComponent(g);
         Graphics2D g2 = (Graphics2D) g;
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
 
+        List<Incident> incidents = engine.getIncidents();
         drawMapBackground(g2);
+        if (showCoverage) {
+            drawCoverage(g2);
+        }
         drawRoads(g2);
-        drawIncidentHeatmap(g2);
+        drawIncidentHeatmap(g2, incidents);
 
-        if (!routeCoordinates.isEmpty()) {
-            drawRoute(g2);
+        for (Incident incident : incidents) {
+            drawRoute(g2, incident);
         }
 
         for (FireStation station : stations) {
@@ -371,7 +506,12 @@ class AdvancedMapPanel extends JPanel {
             drawIncident(g2, incident);
         }
 
-        drawHUD(g2);
+        drawVehicles(g2);
+        drawHUD(g2, incidents.size());
+        if (showDebug) {
+            drawDebugOverlay(g2);
+        }
+        Instrumentation.MAP_PAINT.stop(started);
     }
 
     private void drawMapBackground(Graphics2D g2) {
@@ -383,7 +523,30 @@ class AdvancedMapPanel extends JPanel {
         g2.fillRect(0, 0, getWidth(), getHeight());
     }
 
-    private void drawIncidentHeatmap(Graphics2D g2) {
+    // Reachable cells in green, road cells outside every station's reach in red
+    private void drawCoverage(Graphics2D g2) {
+        CoverageMap map = coverage.latest(CoverageEngine.DEFAULT_MINUTES);
+        if (map == null) return;
+        Color reach = new Color(0, 200, 120, 50);
+        Color gap = new Color(255, 60, 60, 60);
+        for (int cell = map.roadCells.nextSetBit(0); cell >= 0; cell = map.roadCells.nextSetBit(cell + 1)) {
+            fillCell(g2, map, cell, map.covered.get(cell) ? reach : gap);
+        }
+        for (int cell = map.covered.nextSetBit(0); cell >= 0; cell = map.covered.nextSetBit(cell + 1)) {
+            if (!map.roadCells.get(cell)) fillCell(g2, map, cell, reach);
+        }
+    }
+
+    private void fillCell(Graphics2D g2, CoverageMap map, int cell, Color color) {
+        double[] box = map.cellBounds(cell);
+        int[] p1 = latLonToScreen(box[2], box[1]);
+        int[] p2 = latLonToScreen(box[0], box[3]);
+        if (p2[0] < 0 || p1[0] > getWidth() || p2[1] < 0 || p1[1] > getHeight()) return;
+        g2.setColor(color);
+        g2.fillRect(p1[0], p1[1], Math.max(1, p2[0] - p1[0]), Math.max(1, p2[1] - p1[1]));
+    }
+
+    private void drawIncidentHeatmap(Graphics2D g2, List<Incident> incidents) {
         for (Incident incident : incidents) {
             int[] screen = latLonToScreen(incident.lat, incident.lon);
             int x = screen[0], y = screen[1];
@@ -400,45 +563,125 @@ class AdvancedMapPanel extends JPanel {
         }
     }
 
+    // Only roads whose bounding box meets the viewport are drawn, each at
+    // the simplification level for the current zoom and batched into one
+    // path per road width. Minor roads are left out when zoomed out, and
+    // roads that would shrink below two pixels are skipped entirely.
     private void drawRoads(Graphics2D g2) {
-        for (RoadNetwork road : roadNetwork) {
-            int[] p1 = latLonToScreen(road.lat1, road.lon1);
-            int[] p2 = latLonToScreen(road.lat2, road.lon2);
-            if (!isPointVisible(p1) && !isPointVisible(p2)) continue;
+        double scale = Math.pow(2, zoomLevel);
+        double offX = lngToPixel(centerLon, zoomLevel) - getWidth() / 2.0;
+        double offY = latToPixel(centerLat, zoomLevel) - getHeight() / 2.0;
+        double margin = 150;
+        int[] visible = roadIndex.query((offX - margin) / scale, (offY - margin) / scale,
+                                        (offX + getWidth() + margin) / scale, (offY + getHeight() + margin) / scale);
+
+        double roadX = offX - roadIndex.originX() * scale, roadY = offY - roadIndex.originY() * scale;
 
+        TreeMap<Integer, Path2D.Float> byWidth = new TreeMap<>();
+        Path2D.Float all = new Path2D.Float();
+        Path2D.Float closed = new Path2D.Float();
+        for (int id : visible) {
+            RoadNetwork road = roadNetwork.get(id);
+            if (road.width <= RoadIndex.MINOR_ROAD_WIDTH && zoomLevel < RoadIndex.MINOR_ROAD_MIN_ZOOM) continue;
+            if (roadIndex.extent(id) * scale < 2) continue;
+
+            Path2D.Float path = byWidth.computeIfAbsent(road.width, w -> new Path2D.Float());
+            appendRoad(path, roadIndex.geometry(id, zoomLevel), false, scale, roadX, roadY);
+            appendRoad(all, roadIndex.geometry(id, zoomLevel), false, scale, roadX, roadY);
+            if (graph.isBlocked(road.from, road.to)) {
+                appendRoad(closed, roadIndex.geometry(id, zoomLevel), false, scale, roadX, roadY);
+            }
+        }
+
+        for (Map.Entry<Integer, Path2D.Float> group : byWidth.entrySet()) {
             g2.setColor(new Color(80, 160, 255, 60));
-            g2.setStroke(new BasicStroke(road.width + 10));
-            g2.drawLine(p1[0], p1[1], p2[0], p2[1]);
+            g2.setStroke(new BasicStroke(group.getKey() + 10));
+            g2.draw(group.getValue());
 
             g2.setColor(new Color(35, 45, 65));
-            g2.setStroke(new BasicStroke(road.width + 4));
-            g2.drawLine(p1[0], p1[1], p2[0], p2[1]);
+            g2.setStroke(new BasicStroke(group.getKey() + 4));
+            g2.draw(group.getValue());
+        }
+
+        g2.setColor(new Color(200, 200, 100, 120));
+        g2.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 0, new float[]{10, 15}, 0));
+        g2.draw(all);
+
+        g2.setColor(new Color(255, 40, 40, 200));
+        g2.setStroke(new BasicStroke(4, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 0, new float[]{10, 15}, 0));
+        g2.draw(closed);
+    }
 
-            g2.setColor(new Color(200, 200, 100, 120));
-            g2.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 0, new float[]{10, 15}, 0));
-            g2.drawLine(p1[0], p1[1], p2[0], p2[1]);
+    // Adds a RoadIndex polyline to a path in screen space; offX and offY
+    // already account for the index origin
+    private void appendRoad(Path2D.Float path, float[] pts, boolean reverse, double scale, double offX, double offY) {
+        int n = pts.length / 2;
+        for (int k = 0; k < n; k++) {
+            int i = (reverse ? n - 1 - k : k) * 2;
+            float x = (float)(pts[i] * scale - offX);
+            float y = (float)(pts[i + 1] * scale - offY);
+            if (k == 0) path.moveTo(x, y);
+            else path.lineTo(x, y);
         }
     }
 
-    private void drawRoute(Graphics2D g2) {
+    // Live route published by the ETA service: graph nodes from the unit's
+    // nearest node to the node closest to the incident, then the last leg
+    private void drawRoute(Graphics2D g2, Incident incident) {
+        int[] route = incident.route;
+        if (route == null || route.length == 0) return;
+        if (roster.stateFor(incident.unitId, incident.id) != UnitRoster.EN_ROUTE) return;
+
+        double scale = Math.pow(2, zoomLevel);
+        double offX = lngToPixel(centerLon, zoomLevel) - getWidth() / 2.0;
+        double offY = latToPixel(centerLat, zoomLevel) - getHeight() / 2.0;
+        double roadX = offX - roadIndex.originX() * scale, roadY = offY - roadIndex.originY() * scale;
+        Path2D.Float path = new Path2D.Float();
+        int[] start = latLonToScreen(nodeLats[route[0]], nodeLons[route[0]]);
+        path.moveTo(start[0], start[1]);
+        for (int i = 1; i < route.length; i++) {
+            int id = roadIndex.roadBetween(route[i - 1], route[i]);
+            if (id >= 0) {
+                Path2D.Float leg = new Path2D.Float();
+                appendRoad(leg, roadIndex.geometry(id, zoomLevel), roadNetwork.get(id).from != route[i - 1], scale, roadX, roadY);
+                path.append(leg, true);
+            } else {
+                int[] p = latLonToScreen(nodeLats[route[i]], nodeLons[route[i]]);
+                path.lineTo(p[0], p[1]);
+            }
+        }
+        int[] target = latLonToScreen(incident.lat, incident.lon);
+        path.lineTo(target[0], target[1]);
+
         g2.setColor(new Color(255, 80, 0, 200));
         g2.setStroke(new BasicStroke(10, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        for (int i = 0; i < routeCoordinates.size() - 1; i++) {
-            int[] p1 = latLonToScreen(routeCoordinates.get(i)[0], routeCoordinates.get(i)[1]);
-            int[] p2 = latLonToScreen(routeCoordinates.get(i+1)[0], routeCoordinates.get(i+1)[1]);
-            g2.drawLine(p1[0], p1[1], p2[0], p2[1]);
+        g2.draw(path);
+
+        if (incident.etaMinutes >= 0) {
+            g2.setColor(Color.WHITE);
+            g2.setFont(new Font("Arial", Font.BOLD, 13));
+            g2.drawString(String.format("ETA %.1f min", incident.etaMinutes), target[0] + 26, target[1] - 26);
         }
+    }
+
+    private void drawVehicles(Graphics2D g2) {
+        long now = System.currentTimeMillis();
+        g2.setFont(new Font("Arial", Font.BOLD, 10));
+        for (VehicleFix fix : telemetry.vehicles()) {
+            if (fix.unit < 0) continue;
+            if (fix.unit < roster.size() && UnitRoster.stateOf(roster.word(fix.unit)) == UnitRoster.AVAILABLE) continue;
+            double[] pos = fix.positionAt(now);
+            int[] screen = latLonToScreen(pos[0], pos[1]);
+            if (!isPointVisible(screen)) continue;
+            int x = screen[0], y = screen[1];
 
-        g2.setColor(new Color(255, 255, 100));
-        float progress = (animationFrame % 120) / 120.0f;
-        for (int i = 0; i < routeCoordinates.size() - 1; i++) {
-            double[] c1 = routeCoordinates.get(i);
-            double[] c2 = routeCoordinates.get(i + 1);
-            int[] p1 = latLonToScreen(c1[0], c1[1]);
-            int[] p2 = latLonToScreen(c2[0], c2[1]);
-            int px = (int)(p1[0] + (p2[0] - p1[0]) * progress);
-            int py = (int)(p1[1] + (p2[1] - p1[1]) * progress);
-            g2.fillOval(px - 10, py - 10, 20, 20);
+            g2.setColor(fix.speedKmh > 0 ? new Color(255, 255, 100) : new Color(120, 255, 180));
+            g2.fillOval(x - 9, y - 9, 18, 18);
+            g2.setColor(new Color(40, 40, 40));
+            g2.setStroke(new BasicStroke(2));
+            g2.drawOval(x - 9, y - 9, 18, 18);
+            g2.setColor(Color.WHITE);
+            g2.drawString("U" + fix.unit, x + 11, y + 4);
         }
     }
 
@@ -487,7 +730,7 @@ class AdvancedMapPanel extends JPanel {
                 g2.setStroke(new BasicStroke(5));
                 g2.drawOval(x - size/2, y - size/2, size, size);
             } catch (Exception e) {
-                System.out.println("[PAINT ERROR] Invalid color alpha: " + alpha);
+                Log.warn("PAINT", "Invalid color alpha", "alpha", alpha);
             }
         }
 
@@ -500,7 +743,7 @@ class AdvancedMapPanel extends JPanel {
         g2.drawString("F", x - 10, y + 12);
     }
 
-    private void drawHUD(Graphics2D g2) {
+    private void drawHUD(Graphics2D g2, int incidentCount) {
         int margin = 25;
         int hudW = 480;
         int hudH = 260;
@@ -521,13 +764,31 @@ class AdvancedMapPanel extends JPanel {
         g2.setFont(new Font("Arial", Font.PLAIN, 15));
         String time = new SimpleDateFormat("HH:mm:ss").format(new Date());
         g2.drawString("System Time: " + time, hudX + 25, hudY + 80);
-        g2.drawString("Active Incidents: " + incidents.size(), hudX + 25, hudY + 110);
+        g2.drawString("Active Incidents: " + incidentCount, hudX + 25, hudY + 110);
         g2.drawString("Stations Online: " + stations.size(), hudX + 25, hudY + 140);
         g2.drawString("Zoom: " + String.format("%.1f", zoomLevel), hudX + 25, hudY + 170);
 
         g2.setColor(new Color(120, 255, 180));
         g2.setFont(new Font("Arial", Font.PLAIN, 13));
         g2.drawString("Click = Report Fire | Scroll = Zoom | Middle Drag = Pan", hudX + 25, hudY + 210);
+        g2.drawString("Right-click Road = Close / Reopen / Re-time | C = Coverage | D = Debug", hudX + 25, hudY + 230);
+    }
+
+    private void drawDebugOverlay(Graphics2D g2) {
+        List<String> lines = Instrumentation.ENABLED ? Instrumentation.overlayLines()
+            : Arrays.asList("Metrics disabled", "Start with -Dfirebrigade.metrics=true");
+        g2.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        FontMetrics fm = g2.getFontMetrics();
+        int w = 0;
+        for (String line : lines) w = Math.max(w, fm.stringWidth(line));
+        int x = getWidth() - w - 45, y = 25, h = lines.size() * 16 + 20;
+
+        g2.setColor(new Color(0, 0, 0, 190));
+        g2.fillRoundRect(x, y, w + 20, h, 12, 12);
+        g2.setColor(new Color(120, 255, 180));
+        for (int i = 0; i < lines.size(); i++) {
+            g2.drawString(lines.get(i), x + 10, y + 22 + i * 16);
+        }
     }
 
     private boolean isPointVisible(int[] point) {
@@ -535,22 +796,15 @@ class AdvancedMapPanel extends JPanel {
                point[1] >= -150 && point[1] <= getHeight() + 150;
     }
 
-    public ArrayList<FireStation> getStations() {
-        return stations;
-    }
-
-    public ArrayList<Incident> getIncidents() {
-        return incidents;
-    }
 }
 
 class StatsPanel extends JPanel {
-    private AdvancedMapPanel mapPanel;
-    private JLabel incidentsLabel, stationsLabel, systemStatusLabel;
+    private DispatchEngine engine;
+    private JLabel incidentsLabel, stationsLabel, systemStatusLabel, responseLabel, coverageLabel, healthLabel;
     private JTextArea stats;
 
-    public StatsPanel(AdvancedMapPanel mapPanel) {
-        this.mapPanel = mapPanel;
+    public StatsPanel(DispatchEngine engine) {
+        this.engine = engine;
         setBackground(new Color(245, 248, 255));
         setLayout(new BorderLayout(20, 20));
         setBorder(new EmptyBorder(30, 30, 30, 30));
@@ -567,15 +821,18 @@ class StatsPanel extends JPanel {
         statsGrid.setPreferredSize(new Dimension(350, 300));
 
         incidentsLabel = createStatCard("Active Incidents", "0", new Color(220, 50, 50));
-        stationsLabel = createStatCard("Fire Stations", "5", new Color(0, 120, 200));
+        stationsLabel = createStatCard("Fire Stations", String.valueOf(engine.getStations().size()), new Color(0, 120, 200));
         systemStatusLabel = createStatCard("System Status", "ACTIVE", new Color(50, 150, 50));
 
         statsGrid.add(incidentsLabel);
         statsGrid.add(stationsLabel);
         statsGrid.add(systemStatusLabel);
-        statsGrid.add(createStatCard("Response Time", "8.5 min", new Color(70, 130, 180)));
-        statsGrid.add(createStatCard("Coverage Area", "1200 km2", new Color(100, 100, 100)));
-        statsGrid.add(createStatCard("System Health", "90.6%", new Color(0, 150, 0)));
+        responseLabel = createStatCard("Response Time", "--", new Color(70, 130, 180));
+        statsGrid.add(responseLabel);
+        coverageLabel = createStatCard("Coverage Area", "--", new Color(100, 100, 100));
+        statsGrid.add(coverageLabel);
+        healthLabel = createStatCard("System Health", "--", new Color(0, 150, 0));
+        statsGrid.add(healthLabel);
 
         JPanel chartsPanel = new JPanel(new BorderLayout());
         chartsPanel.setBackground(new Color(245, 248, 255));
@@ -595,39 +852,71 @@ class StatsPanel extends JPanel {
         add(chartsPanel, BorderLayout.CENTER);
         
         // Auto-update every 500ms
-        new Timer(500, e -> updateDisplay()).start();
+        new Timer(500, e -> {
+            if (!isShowing()) return;
+            long started = Instrumentation.start();
+            updateDisplay();
+            Instrumentation.STATS_UPDATE.stop(started);
+        }).start();
     }
     
     private void updateDisplay() {
-        int incidentCount = mapPanel.getIncidents().size();
-        incidentsLabel.setText("<html><center>Active Incidents<br><font size='6'>" + incidentCount + "</font></center></html>");
+        int active = engine.activeIncidents();
+        incidentsLabel.setText("<html><center>Active Incidents<br><font size='6'>" + active + "</font></center></html>");
         updateStats();
     }
     
     private void updateStats() {
-        ArrayList<Incident> incidents = mapPanel.getIncidents();
-        int critical = 0, medium = 0, low = 0;
-        for (Incident inc : incidents) {
-            if (inc.severity == 3) critical++;
-            else if (inc.severity == 2) medium++;
-            else low++;
-        }
+        MetricsEngine metrics = engine.getMetrics();
+        long now = System.currentTimeMillis();
+        long total = metrics.total().count();
+        int active = engine.activeIncidents();
+        MetricsEngine.WindowStats lastHour = metrics.total().window(MetricsEngine.HOUR, now);
+        String recent = lastHour.count > 0 ? String.format("%.1f min", lastHour.mean / 60.0) : "--";
+        responseLabel.setText("<html><center>Response Time<br><font size='6'>" + recent + "</font></center></html>");
+        CoverageMap coverage = engine.getCoverage().latest(CoverageEngine.DEFAULT_MINUTES);
+        String covered = coverage != null ? String.format("%.0f km2", coverage.coveredKm2()) : "--";
+        coverageLabel.setText("<html><center>Coverage Area<br><font size='6'>" + covered + "</font></center></html>");
+        double health = engine.systemHealth();
+        String healthText = health >= 0 ? String.format("%.1f%%", health) : "--";
+        healthLabel.setText("<html><center>System Health<br><font size='6'>" + healthText + "</font></center></html>");
         
-        stats.setText("INCIDENT ANALYSIS\n\n" +
-            "System Status: " + (incidents.isEmpty() ? "OPERATIONAL" : "ACTIVE RESPONSE") + "\n" +
-            "Total Stations: 5\n" +
-            "Coverage Area: 1200+ km2\n" +
-            "Average Response Time: 8.5 minutes\n" +
-            "Success Rate: 98.7%\n\n" +
+        StringBuilder text = new StringBuilder("INCIDENT ANALYSIS\n\n" +
+            "System Status: " + (active == 0 ? "OPERATIONAL" : "ACTIVE RESPONSE") + "\n" +
+            "Total Stations: " + engine.getStations().size() + "\n" +
+            "Coverage Area (" + CoverageEngine.DEFAULT_MINUTES + " min): " + covered + "\n" +
+            "Coverage Gaps: " + (coverage != null ? String.format("%.1f km2 of road network", coverage.gapKm2()) : "--") + "\n\n" +
             "CURRENT STATISTICS\n" +
-            "Total Active Incidents: " + incidents.size() + "\n" +
-            "Critical: " + critical + "\n" +
-            "Medium: " + medium + "\n" +
-            "Low: " + low + "\n\n" +
-            "SYSTEM INFO\n" +
-            "Connected Stations: 5\n" +
-            "Available Vehicles: 19\n" +
+            "Active Incidents: " + active + "\n" +
+            "Incidents Responded To: " + total + "\n" +
+            "Critical: " + metrics.severity(3).count() + "\n" +
+            "Medium: " + metrics.severity(2).count() + "\n" +
+            "Low: " + metrics.severity(1).count() + "\n\n" +
+            "RESPONSE WINDOWS\n");
+        appendWindow(text, "Last 15 min", metrics.total().window(MetricsEngine.QUARTER_HOUR, now));
+        appendWindow(text, "Last 1 h", lastHour);
+        appendWindow(text, "Last 24 h", metrics.total().window(MetricsEngine.DAY, now));
+        
+        text.append("\nSTATIONS (LAST 1 H)\n");
+        List<FireStation> stations = engine.getStations();
+        for (FireStation station : stations) {
+            appendWindow(text, station.name, metrics.station(station.id).window(MetricsEngine.HOUR, now));
+        }
+        
+        text.append("\nSYSTEM INFO\n" +
+            "Connected Stations: " + stations.size() + "\n" +
+            "Available Vehicles: " + engine.getRoster().available() + " / " + engine.getRoster().size() + "\n" +
             "Network Status: ONLINE");
+        stats.setText(text.toString());
+    }
+
+    private void appendWindow(StringBuilder text, String label, MetricsEngine.WindowStats w) {
+        text.append(label).append(": ").append(w.count).append(" incidents");
+        if (w.count > 0) {
+            text.append(String.format(" (%.1f/h) | p50 %.1f min | p90 %.1f min",
+                w.ratePerHour, w.p50 / 60.0, w.p90 / 60.0));
+        }
+        text.append("\n");
     }
 
     private JLabel createStatCard(String title, String value, Color color) {
@@ -642,11 +931,11 @@ class StatsPanel extends JPanel {
 }
 
 class IncidentsPanel extends JPanel {
-    private AdvancedMapPanel mapPanel;
+    private DispatchEngine engine;
     private JTextArea incidents;
     
-    public IncidentsPanel(AdvancedMapPanel mapPanel) {
-        this.mapPanel = mapPanel;
+    public IncidentsPanel(DispatchEngine engine) {
+        this.engine = engine;
         setBackground(new Color(245, 248, 255));
         setLayout(new BorderLayout(20, 20));
         setBorder(new EmptyBorder(30, 30, 30, 30));
@@ -672,11 +961,16 @@ class IncidentsPanel extends JPanel {
         add(scroll, BorderLayout.CENTER);
         
         // Auto-update every 500ms
-        new Timer(500, e -> updateIncidents()).start();
+        new Timer(500, e -> {
+            if (!isShowing()) return;
+            long started = Instrumentation.start();
+            updateIncidents();
+            Instrumentation.INCIDENTS_UPDATE.stop(started);
+        }).start();
     }
     
     private void updateIncidents() {
-        ArrayList<Incident> incidentList = mapPanel.getIncidents();
+        List<Incident> incidentList = engine.getIncidents();
         StringBuilder text = new StringBuilder("=== ACTIVE INCIDENTS REPORT ===\n\n");
         
         if (incidentList.isEmpty()) {
@@ -695,21 +989,36 @@ class IncidentsPanel extends JPanel {
                 text.append("[INCIDENT ").append(i + 1).append("]\n")
                     .append("  Station: ").append(inc.respondingStation).append("\n")
                     .append("  Severity: ").append(severity).append("\n")
-                    .append("  Location: ").append(String.format("%.4f, %.4f", inc.lat, inc.lon)).append("\n")
-                    .append("  Status: RESPONDING\n\n");
+                    .append("  Location: ").append(inc.location != null ? inc.location.describe() : "Unknown").append("\n")
+                    .append("  Coordinates: ").append(String.format("%.4f, %.4f", inc.lat, inc.lon)).append("\n")
+                    .append("  Status: ").append(unitStatus(inc)).append("\n\n");
             }
         }
         
         incidents.setText(text.toString());
     }
+
+    private String unitStatus(Incident inc) {
+        if (inc.unitId < 0) {
+            if (!engine.getQueue().contains(inc.id)) return "WAITING FOR UNIT";
+            long waited = (System.currentTimeMillis() - inc.reportedAt) / 60000;
+            return "QUEUED (" + waited + " min)";
+        }
+        int state = engine.getRoster().stateFor(inc.unitId, inc.id);
+        String status = (state < 0 ? "CLEARED" : UnitRoster.STATE_NAMES[state]) + " (Unit " + inc.unitId + ")";
+        if (state == UnitRoster.EN_ROUTE && inc.etaMinutes >= 0) {
+            status += String.format(" | ETA %.1f min", inc.etaMinutes);
+        }
+        return status;
+    }
 }
 
 class StationsPanel extends JPanel {
-    private AdvancedMapPanel mapPanel;
+    private DispatchEngine engine;
     private JPanel stationsContainer;
     
-    public StationsPanel(AdvancedMapPanel mapPanel) {
-        this.mapPanel = mapPanel;
+    public StationsPanel(DispatchEngine engine) {
+        this.engine = engine;
         setBackground(new Color(245, 248, 255));
         setLayout(new BorderLayout(20, 20));
         setBorder(new EmptyBorder(30, 30, 30, 30));
@@ -733,12 +1042,18 @@ class StationsPanel extends JPanel {
         add(scroll, BorderLayout.CENTER);
         
         // Auto-update every 500ms
-        new Timer(500, e -> updateStations()).start();
+        new Timer(500, e -> {
+            if (!isShowing()) return;
+            long started = Instrumentation.start();
+            updateStations();
+            Instrumentation.STATIONS_UPDATE.stop(started);
+        }).start();
     }
     
     private void updateStations() {
         stationsContainer.removeAll();
-        ArrayList<FireStation> stations = mapPanel.getStations();
+        List<FireStation> stations = engine.getStations();
+        UnitRoster roster = engine.getRoster();
         
         for (FireStation station : stations) {
             JPanel card = new JPanel(new BorderLayout(15, 15));
@@ -747,8 +1062,11 @@ class StationsPanel extends JPanel {
             card.setMaximumSize(new Dimension(Integer.MAX_VALUE, 80));
             card.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-            String stationInfo = String.format("Station %d: %s | Lat: %.4f | Lon: %.4f | Vehicles: %d | Status: ONLINE",
-                station.id, station.name, station.latitude, station.longitude, 3);
+            int[] states = roster.countByState(station.id);
+            String stationInfo = String.format("Station %d: %s | Lat: %.4f | Lon: %.4f | Vehicles: %d/%d available | En route: %d | On scene: %d | Returning: %d",
+                station.id, station.name, station.latitude, station.longitude,
+                states[UnitRoster.AVAILABLE], station.units, states[UnitRoster.EN_ROUTE],
+                states[UnitRoster.ON_SCENE], states[UnitRoster.RETURNING]);
             JLabel stationLabel = new JLabel(stationInfo);
             stationLabel.setFont(new Font("Arial", Font.BOLD, 13));
             card.add(stationLabel, BorderLayout.CENTER);
@@ -763,11 +1081,14 @@ class StationsPanel extends JPanel {
 }
 
 class AnalyticsPanel extends JPanel {
-    private AdvancedMapPanel mapPanel;
+    private DispatchEngine engine;
     private JTextArea analytics;
+    private JTextArea whatIf;
+    private JButton whatIfButton;
+    private JComboBox<String> whatIfSource;
     
-    public AnalyticsPanel(AdvancedMapPanel mapPanel) {
-        this.mapPanel = mapPanel;
+    public AnalyticsPanel(DispatchEngine engine) {
+        this.engine = engine;
         setBackground(new Color(245, 248, 255));
         setLayout(new BorderLayout(20, 20));
         setBorder(new EmptyBorder(30, 30, 30, 30));
@@ -788,180 +1109,4786 @@ class AnalyticsPanel extends JPanel {
         JScrollPane scroll = new JScrollPane(analytics);
         scroll.setBorder(new LineBorder(new Color(0, 100, 200), 2));
 
+        whatIf = new JTextArea(12, 80);
+        whatIf.setEditable(false);
+        whatIf.setFont(new Font("Courier", Font.PLAIN, 12));
+        whatIf.setBackground(new Color(240, 245, 255));
+        whatIf.setText("Replays one year of synthetic incidents, or the incidents recorded this session,\n"
+            + "against the current stations and roads, then against the same fleet with one extra\n"
+            + "standby unit at each station, one unit moved to each station from the largest one,\n"
+            + "and each station relocated to the centre of the incidents it is nearest to.");
+        whatIfSource = new JComboBox<>(new String[]{"Synthetic year", "Recorded incidents"});
+        whatIfButton = new JButton("Run What-If Simulation");
+        whatIfButton.setFont(new Font("Arial", Font.BOLD, 13));
+        whatIfButton.addActionListener(e -> runWhatIf());
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        controls.setOpaque(false);
+        controls.add(whatIfSource);
+        controls.add(whatIfButton);
+
+        JPanel simPanel = new JPanel(new BorderLayout(10, 10));
+        simPanel.setBackground(new Color(245, 248, 255));
+        simPanel.setBorder(new TitledBorder("Station Relocation & What-If"));
+        simPanel.add(controls, BorderLayout.NORTH);
+        simPanel.add(new JScrollPane(whatIf), BorderLayout.CENTER);
+
         add(header, BorderLayout.NORTH);
         add(scroll, BorderLayout.CENTER);
+        add(simPanel, BorderLayout.SOUTH);
         
         // Auto-update every 500ms
-        new Timer(500, e -> updateAnalytics()).start();
+        new Timer(500, e -> {
+            if (!isShowing()) return;
+            long started = Instrumentation.start();
+            updateAnalytics();
+            Instrumentation.ANALYTICS_UPDATE.stop(started);
+        }).start();
+    }
+
+    private void runWhatIf() {
+        whatIfButton.setEnabled(false);
+        whatIf.setText("Running scenarios...");
+        ArrayList<FireStation> stations = new ArrayList<>(engine.getStations());
+        WhatIfSimulator simulator = engine.newSimulator();
+        boolean recorded = whatIfSource.getSelectedIndex() == 1;
+
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() {
+                long start = System.currentTimeMillis();
+                List<WhatIfSimulator.SimIncident> incidents = recorded
+                    ? simulator.fromHistory(engine.getIncidentStore())
+                    : simulator.synthetic(365, 40, 42);
+                if (incidents.isEmpty()) return "No incidents recorded yet.";
+
+                List<WhatIfSimulator.Scenario> scenarios = new ArrayList<>();
+                WhatIfSimulator.Scenario baseline = WhatIfSimulator.Scenario.of("Current fleet", stations);
+                scenarios.add(baseline);
+                int largest = 0;
+                for (int i = 0; i < stations.size(); i++) {
+                    scenarios.add(baseline.withExtraUnit(i, "+1 unit at " + stations.get(i).name));
+                    if (stations.get(i).units > stations.get(largest).units) largest = i;
+                }
+                for (int i = 0; i < stations.size(); i++) {
+                    if (i != largest && stations.get(largest).units > 1) {
+                        scenarios.add(baseline.withUnitMoved(largest, i, "1 unit " + stations.get(largest).name + " -> " + stations.get(i).name));
+                    }
+                }
+                for (int i = 0; i < stations.size(); i++) {
+                    WhatIfSimulator.Scenario moved = simulator.relocatedToDemand(baseline, i, incidents, "Relocate " + stations.get(i).name);
+                    if (moved != null) scenarios.add(moved);
+                }
+                List<WhatIfSimulator.Result> results = simulator.runAll(scenarios, incidents);
+
+                double days = (incidents.get(incidents.size() - 1).time - incidents.get(0).time) / 86400.0;
+                StringBuilder text = new StringBuilder(String.format("%d %s incidents over %.1f days, %d scenarios in %d ms%n%n",
+                    incidents.size(), recorded ? "recorded" : "synthetic", days, scenarios.size(), System.currentTimeMillis() - start));
+                text.append(String.format("%-40s %8s %8s %8s %10s %8s%n", "Scenario", "Mean", "p50", "p90", "<= 8 min", "Queued"));
+                for (WhatIfSimulator.Result r : results) {
+                    text.append(String.format("%-40s %7.1fm %7.1fm %7.1fm %9.1f%% %8d%n", r.scenario.name,
+                        r.response.mean() / 60.0, r.response.quantile(0.5) / 60.0, r.response.quantile(0.9) / 60.0,
+                        100.0 * r.withinTarget / Math.max(1, r.response.count()), r.queued));
+                }
+                return text.toString();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    whatIf.setText(get());
+                } catch (Exception e) {
+                    whatIf.setText("Simulation failed: " + e.getMessage());
+                }
+                whatIfButton.setEnabled(true);
+            }
+        }.execute();
     }
     
     private void updateAnalytics() {
-        ArrayList<Incident> incidents = mapPanel.getIncidents();
-        int critical = 0, medium = 0, low = 0;
-        for (Incident inc : incidents) {
-            if (inc.severity == 3) critical++;
-            else if (inc.severity == 2) medium++;
-            else low++;
-        }
+        IncidentStore store = engine.getIncidentStore();
+        List<FireStation> stations = engine.getStations();
+        long[] bySeverity = store.countBySeverity(0);
+        long critical = bySeverity[3], medium = bySeverity[2], low = bySeverity[1];
+        IncidentStore.StationSummary[] byStation = store.groupByStation(0, stations.size());
         
-        int totalIncidents = critical + medium + low;
-        double criticalPercent = totalIncidents > 0 ? (critical * 100.0 / totalIncidents) : 33;
-        double mediumPercent = totalIncidents > 0 ? (medium * 100.0 / totalIncidents) : 48;
-        double lowPercent = totalIncidents > 0 ? (low * 100.0 / totalIncidents) : 19;
+        long totalIncidents = critical + medium + low;
+        double criticalPercent = totalIncidents > 0 ? (critical * 100.0 / totalIncidents) : 0;
+        double mediumPercent = totalIncidents > 0 ? (medium * 100.0 / totalIncidents) : 0;
+        double lowPercent = totalIncidents > 0 ? (low * 100.0 / totalIncidents) : 0;
         
-        analytics.setText("PERFORMANCE METRICS\n" +
+        StringBuilder text = new StringBuilder("PERFORMANCE METRICS\n" +
             "═════════════════════════════════════════════════════\n" +
-            "Response Time Analysis:\n" +
-            "  • Average: 8.5 minutes\n" +
-            "  • Fastest: 4.2 minutes (Blue Area)\n" +
-            "  • Slowest: 15.3 minutes (Airport Road)\n\n" +
-            "Incident Distribution (Live Data):\n" +
+            "Response Time Analysis:\n");
+        if (totalIncidents == 0) {
+            text.append("  • No dispatches recorded yet\n\n");
+        } else {
+            int fastest = -1, slowest = -1;
+            for (int i = 0; i < byStation.length; i++) {
+                if (byStation[i].count == 0) continue;
+                if (fastest == -1 || byStation[i].average() < byStation[fastest].average()) fastest = i;
+                if (slowest == -1 || byStation[i].average() > byStation[slowest].average()) slowest = i;
+            }
+            text.append(String.format("  • Average: %.1f minutes\n", store.averageResponse(0)))
+                .append(String.format("  • Median: %.1f minutes | 90th: %.1f minutes\n",
+                    store.percentileResponse(0, 0.5), store.percentileResponse(0, 0.9)))
+                .append(String.format("  • Fastest: %.1f minutes (%s)\n", byStation[fastest].average(), stations.get(fastest).name))
+                .append(String.format("  • Slowest: %.1f minutes (%s)\n\n", byStation[slowest].average(), stations.get(slowest).name));
+        }
+        
+        text.append("Incident Distribution (Live Data):\n" +
             "  • Critical (" + String.format("%.0f", criticalPercent) + "%): " + critical + " incidents\n" +
             "  • Medium (" + String.format("%.0f", mediumPercent) + "%): " + medium + " incidents\n" +
             "  • Low (" + String.format("%.0f", lowPercent) + "%): " + low + " incidents\n" +
             "  • Total Active: " + totalIncidents + " incidents\n\n" +
-            "Station Efficiency:\n" +
-            "  1. Main Station: 92% availability\n" +
-            "  2. Blue Area: 88% availability\n" +
-            "  3. G-6 Sector: 95% availability\n" +
-            "  4. Margalla Road: 87% availability\n" +
-            "  5. Airport Road: 91% availability\n\n" +
-            "System Health: " + (incidents.isEmpty() ? "95.8%" : "ACTIVE") + " \n");
+            "Station Workload:\n");
+        for (int i = 0; i < byStation.length; i++) {
+            IncidentStore.StationSummary summary = byStation[i];
+            text.append(String.format("  %d. %s: %d/%d units available, %d dispatches", i + 1, stations.get(i).name,
+                engine.getRoster().countByState(i)[UnitRoster.AVAILABLE], stations.get(i).units, summary.count));
+            if (summary.count > 0) {
+                text.append(String.format(", avg %.1f min", summary.average()));
+            }
+            text.append("\n");
+        }
+        MetricsEngine metrics = engine.getMetrics();
+        long now = System.currentTimeMillis();
+        text.append("\nResponse by Severity (last 24 h):\n");
+        String[] names = {"", "Low", "Medium", "Critical"};
+        for (int sev = 3; sev >= 1; sev--) {
+            MetricsEngine.WindowStats w = metrics.severity(sev).window(MetricsEngine.DAY, now);
+            text.append("  • ").append(names[sev]).append(": ");
+            text.append(w.count == 0 ? "no data" : String.format("p50 %.1f min, p90 %.1f min, max %.1f min",
+                w.p50 / 60.0, w.p90 / 60.0, w.max / 60.0)).append("\n");
+        }
+        double health = engine.systemHealth();
+        text.append("\nSystem Health: ").append(health >= 0 ? String.format("%.1f%%", health) : "computing coverage...")
+            .append(String.format(" (%d of %d units free)%n", engine.getRoster().available(), engine.getRoster().size()));
+        analytics.setText(text.toString());
     }
 }
 
-class RoadNetwork {
-    int from, to, distance, width;
-    double lat1, lon1, lat2, lon2;
-    String name;
-    
-    RoadNetwork(int from, int to, String name, double lat1, double lon1, 
-                double lat2, double lon2, int distance, int width) {
-        this.from = from;
-        this.to = to;
-        this.name = name;
-        this.lat1 = lat1;
-        this.lon1 = lon1;
-        this.lat2 = lat2;
-        this.lon2 = lon2;
-        this.distance = distance;
-        this.width = width;
+// Headless dispatch core. Owns the road graph, stations, unit roster and
+// incident history together with the services that route and report on
+// them, and has no Swing dependency, so it can run without a display.
+// Every public method is safe from any thread: incident intake is
+// serialised on the engine, units advance on its own clock thread, and
+// any number of subscribers (each dashboard's panels, or a server-side
+// relay) hear about changes through DispatchListener on engine threads.
+// The clock thread looks a unit's incident up by id as soon as the roster
+// shows it committed, so an incident must be in the log, and carry the
+// responseMinutes of the leg, before roster.dispatch publishes the unit.
+class DispatchEngine {
+    static final long CLOCK_MILLIS = 1000;
+    // What reportIncident did with a new incident
+    private static final int DISPATCHED = 0, QUEUED = 1, REJECTED = 2;
+
+    interface DispatchListener {
+        void incidentReported(Incident incident);
+
+        default void roadChanged(RoadNetwork road) {
+        }
+
+        // A queued incident finally got a unit
+        default void incidentDispatched(Incident incident) {
+        }
     }
-}
 
-class FireStation {
-    int id;
-    String name;
-    double latitude, longitude;
-    
-    FireStation(int id, String name, double lat, double lon) {
-        this.id = id;
-        this.name = name;
-        this.latitude = lat;
-        this.longitude = lon;
+    private final ArrayList<FireStation> stations = new ArrayList<>();
+    private final ArrayList<RoadNetwork> roadNetwork = new ArrayList<>();
+    private final IncidentLog incidents = new IncidentLog();
+    private final IncidentStore incidentStore = new IncidentStore();
+    private final MetricsEngine metrics = new MetricsEngine();
+    private final TelemetryPipeline telemetry = new TelemetryPipeline();
+    private final CopyOnWriteArrayList<DispatchListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService clock = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "dispatch-clock");
+        t.setDaemon(true);
+        return t;
+    });
+    private double[] nodeLats, nodeLons;
+    private final UnitRoster roster;
+    private final IncidentQueue queue;
+    // Incidents turned away because the queue was full; they are never
+    // recorded as responses
+    private final LongAdder rejected = new LongAdder();
+    private final GraphDS graph;
+    private final NodeIndex nodeIndex;
+    private final RoadIndex roadIndex;
+    private final ReverseGeocoder geocoder;
+    private final CoverageEngine coverage;
+    private final RouteCache routeCache;
+    private final EtaService etaService;
+    private volatile SocketClient upstream;
+
+    // Loads the map and builds every index; this is the slow part of
+    // startup and belongs on a background thread
+    DispatchEngine(String mapFile) {
+        Log.info("ENGINE", "Initializing stations and roads...");
+        loadRoadMap(mapFile);
+        roster = new UnitRoster(stations);
+        queue = IncidentQueue.fromProperties(stations);
+        // The spatial indexes only read the loaded map, so they build on
+        // the common pool while this thread builds the graph
+        CompletableFuture<NodeIndex> nodes = CompletableFuture.supplyAsync(() -> new NodeIndex(nodeLats, nodeLons));
+        CompletableFuture<RoadIndex> roads = CompletableFuture.supplyAsync(() -> new RoadIndex(roadNetwork));
+        CompletableFuture<ReverseGeocoder> places = CompletableFuture.supplyAsync(() -> ReverseGeocoder.open(mapFile, roadNetwork));
+        Log.info("ENGINE", "Creating graph...");
+        graph = new GraphDS(nodeLats.length);
+        buildGraph();
+        nodeIndex = nodes.join();
+        roadIndex = roads.join();
+        geocoder = places.join();
+        coverage = new CoverageEngine(graph, stations, roadNetwork);
+        routeCache = new RouteCache(graph);
+        etaService = new EtaService(graph, routeCache, nodeLats, nodeLons, nodeIndex, stations, roster, telemetry);
     }
-}
 
-class Incident {
-    int respondingStation;
-    int severity;
-    double lat, lon;
-    
-    Incident(int station, int severity, double lat, double lon) {
-        this.respondingStation = station;
-        this.severity = severity;
-        this.lat = lat;
-        this.lon = lon;
+    // Engine for -Dfirebrigade.map (or the built-in network), running
+    static DispatchEngine start() {
+        DispatchEngine engine = new DispatchEngine(System.getProperty("firebrigade.map"));
+        engine.startServices();
+        return engine;
     }
-}
 
-class GraphDS {
-    private ArrayList<ArrayList<EdgeDS>> adjacencyList;
-    
-    GraphDS(int vertices) {
-        adjacencyList = new ArrayList<>();
-        for (int i = 0; i < vertices; i++) {
-            adjacencyList.add(new ArrayList<>());
+    void startServices() {
+        telemetry.start();
+        etaService.start();
+        coverage.latest(CoverageEngine.DEFAULT_MINUTES);
+        clock.scheduleWithFixedDelay(this::advanceUnits, CLOCK_MILLIS, CLOCK_MILLIS, TimeUnit.MILLISECONDS);
+        registerGauges();
+        Log.info("ENGINE", "Dispatch engine running", "stations", stations.size(), "roads", roadNetwork.size());
+    }
+
+    // The C++ backend: incidents are forwarded to it and its GPS feed goes
+    // into the telemetry pipeline
+    void setUpstream(SocketClient client) {
+        upstream = client;
+        if (client != null) {
+            client.setTelemetry(telemetry);
         }
     }
-    
-    void addEdge(int u, int v, int weight) {
-        adjacencyList.get(u).add(new EdgeDS(v, weight));
+
+    void addListener(DispatchListener listener) {
+        listeners.add(listener);
     }
-    
-    ArrayList<Integer> dijkstra(int start) {
-        int vertices = adjacencyList.size();
-        int[] dist = new int[vertices];
-        int[] parent = new int[vertices];
-        boolean[] visited = new boolean[vertices];
-        
-        Arrays.fill(dist, Integer.MAX_VALUE);
-        Arrays.fill(parent, -1);
-        dist[start] = 0;
-        
-        for (int i = 0; i < vertices - 1; i++) {
-            int u = -1;
-            for (int j = 0; j < vertices; j++) {
-                if (!visited[j] && (u == -1 || dist[j] < dist[u])) {
-                    u = j;
-                }
-            }
-            
-            if (dist[u] == Integer.MAX_VALUE) break;
-            visited[u] = true;
-            
-            for (EdgeDS edge : adjacencyList.get(u)) {
-                int v = edge.to;
-                if (!visited[v] && dist[u] + edge.weight < dist[v]) {
-                    dist[v] = dist[u] + edge.weight;
-                    parent[v] = u;
-                }
-            }
-        }
-        
-        ArrayList<Integer> route = new ArrayList<>();
-        int farthest = 0;
-        for (int i = 1; i < vertices; i++) {
-            if (dist[i] < Integer.MAX_VALUE && dist[i] > dist[farthest]) {
-                farthest = i;
+
+    void removeListener(DispatchListener listener) {
+        listeners.remove(listener);
+    }
+
+    // -Dfirebrigade.map=<file.geojson> loads stations and roads from an
+    // extract (through its binary cache when that is up to date); without it
+    // the built-in Islamabad network is used
+    private void loadRoadMap(String mapFile) {
+        if (mapFile != null) {
+            try {
+                long start = System.currentTimeMillis();
+                RoadMap map = RoadMap.load(new File(mapFile));
+                stations.addAll(map.stations);
+                roadNetwork.addAll(map.roads);
+                nodeLats = map.nodeLats;
+                nodeLons = map.nodeLons;
+                Log.info("ENGINE", "Loaded map", "file", mapFile, "roads", roadNetwork.size(), "ms", System.currentTimeMillis() - start);
+                return;
+            } catch (IOException e) {
+                Log.error("ENGINE", "Could not load map", "file", mapFile, "reason", e.getMessage());
+                stations.clear();
+                roadNetwork.clear();
             }
         }
-        
-        int current = farthest;
-        while (current != -1) {
-            route.add(0, current);
-            current = parent[current];
+        initializeStations();
+        initializeRoads();
+        // The built-in network uses the stations themselves as graph vertices
+        nodeLats = new double[stations.size()];
+        nodeLons = new double[stations.size()];
+        for (FireStation s : stations) {
+            nodeLats[s.id] = s.latitude;
+            nodeLons[s.id] = s.longitude;
         }
-        
-        return route;
     }
-}
 
-class EdgeDS {
-    int to, weight;
-    EdgeDS(int to, int weight) {
-        this.to = to;
-        this.weight = weight;
+    private void initializeStations() {
+        stations.add(new FireStation(0, "Main Station", 33.6844, 73.0479, 5));
+        stations.add(new FireStation(1, "Blue Area", 33.7182, 73.0605, 4));
+        stations.add(new FireStation(2, "G-6 Sector", 33.7100, 73.0800, 4));
+        stations.add(new FireStation(3, "Margalla Road", 33.7400, 73.0900, 3));
+        stations.add(new FireStation(4, "Airport Road", 33.6167, 73.0992, 3));
     }
-}
 
-class SocketClient {
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private String serverIP = "127.0.0.1";
-    private int serverPort = 5000;
-    private boolean isConnected = false;
-    private ClientListener listener;
-
-    public interface ClientListener {
-        void onConnected(String welcomeMessage);
-        void onDisconnected();
-        void onMessageReceived(String message);
-        void onError(String error);
+    private void initializeRoads() {
+        roadNetwork.add(new RoadNetwork(0, 1, "Constitution Ave", 33.6844, 73.0479, 33.7182, 73.0605, 6000, 18));
+        roadNetwork.add(new RoadNetwork(0, 3, "Margalla Road", 33.6844, 73.0479, 33.7400, 73.0900, 8000, 16));
+        roadNetwork.add(new RoadNetwork(1, 2, "Jinnah Avenue", 33.7182, 73.0605, 33.7100, 73.0800, 5000, 14));
+        roadNetwork.add(new RoadNetwork(1, 4, "Srinagar Highway", 33.7182, 73.0605, 33.6167, 73.0992, 12000, 20));
+        roadNetwork.add(new RoadNetwork(2, 3, "G-6 Link Road", 33.7100, 73.0800, 33.7400, 73.0900, 7000, 12));
+        roadNetwork.add(new RoadNetwork(3, 4, "Northern Bypass", 33.7400, 73.0900, 33.6167, 73.0992, 15000, 18));
+        roadNetwork.add(new RoadNetwork(0, 2, "Main Expressway", 33.6844, 73.0479, 33.7100, 73.0800, 9000, 22));
+        roadNetwork.add(new RoadNetwork(0, 4, "Airport Highway", 33.6844, 73.0479, 33.6167, 73.0992, 18000, 26));
+        roadNetwork.add(new RoadNetwork(1, 3, "Blue Area Link", 33.7182, 73.0605, 33.7400, 73.0900, 10000, 14));
+        roadNetwork.add(new RoadNetwork(2, 4, "Scenic Route", 33.7100, 73.0800, 33.6167, 73.0992, 16000, 20));
     }
 
-    public SocketClient(String serverIP, int serverPort, ClientListener listener) {
+    private void buildGraph() {
+        for (RoadNetwork road : roadNetwork) {
+            graph.addEdge(road.from, road.to, road.distance);
+            graph.addEdge(road.to, road.from, road.distance);
+        }
+    }
+
+    // Records, dispatches and forwards a new incident. Map clicks and the
+    // load generator both come through here, from any thread.
+    Incident reportIncident(double lat, double lon, int severity) {
+        // Geocoded once at intake rather than on every list redraw; the
+        // position never changes
+        GeoLocation location = geocoder.locate(lat, lon);
+        Incident incident;
+        int outcome;
+        synchronized (this) {
+            incident = new Incident(findNearestStation(lat, lon), severity, lat, lon);
+            incident.id = incidents.size();
+            incident.location = location;
+            incidents.add(incident);
+            if (dispatchUnit(incident)) outcome = DISPATCHED;
+            else if (queue.offer(incident)) outcome = QUEUED;
+            else outcome = REJECTED;
+        }
+
+        Log.debug("DISPATCH", "Incident reported", "incident", incident.id, "unit", incident.unitId);
+        // Queued incidents are recorded when a unit takes them, so their
+        // response time includes the wait; rejected ones never had a response
+        if (outcome == DISPATCHED) {
+            incidentStore.append(incident);
+            metrics.recordIncident(incident);
+            etaService.track(incident);
+        } else if (outcome == REJECTED) {
+            rejected.increment();
+            Log.warn("DISPATCH", "Incident queue full, incident not queued", "incident", incident.id);
+        }
+
+        // Send to C++ server
+        SocketClient client = upstream;
+        if (client != null && client.isConnected()) {
+            client.reportIncident(incident.respondingStation, severity, lat, lon);
+        }
+
+        for (DispatchListener listener : listeners) {
+            listener.incidentReported(incident);
+        }
+        return incident;
+    }
+
+    void setRoadClosed(RoadNetwork road, boolean closed) {
+        if (closed) graph.blockEdge(road.from, road.to);
+        else graph.unblockEdge(road.from, road.to);
+        Log.info("ENGINE", closed ? "Road closed" : "Road reopened", "road", road.name);
+        fireRoadChanged(road);
+    }
+
+    void setRoadCost(RoadNetwork road, int cost) {
+        graph.setEdgeWeight(road.from, road.to, cost);
+        Log.info("ENGINE", "Road re-timed", "road", road.name, "cost", cost);
+        fireRoadChanged(road);
+    }
+
+    private void fireRoadChanged(RoadNetwork road) {
+        for (DispatchListener listener : listeners) {
+            listener.roadChanged(road);
+        }
+    }
+
+    int findNearestStation(double lat, double lon) {
+        int nearest = 0;
+        double minDist = Double.MAX_VALUE;
+        for (FireStation s : stations) {
+            double dist = Math.hypot(s.latitude - lat, s.longitude - lon) * 111;
+            if (dist < minDist) {
+                minDist = dist;
+                nearest = s.id;
+            }
+        }
+        return nearest;
+    }
+
+    // Tries stations closest-first and takes the first available unit. If the
+    // whole fleet is committed the incident stays with the nearest station
+    // and the caller queues it.
+    private boolean dispatchUnit(Incident incident) {
+        Integer[] order = new Integer[stations.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(
+            Math.hypot(stations.get(a).latitude - incident.lat, stations.get(a).longitude - incident.lon),
+            Math.hypot(stations.get(b).latitude - incident.lat, stations.get(b).longitude - incident.lon)));
+
+        for (int stationId : order) {
+            float minutes = estimateResponseMinutes(stationId, incident.lat, incident.lon);
+            long arrival = System.currentTimeMillis() + (long)(minutes * 60000);
+            incident.responseMinutes = minutes;
+            int unit = roster.dispatch(stationId, incident.id, arrival);
+            if (unit >= 0) {
+                incident.respondingStation = stationId;
+                incident.unitId = unit;
+                return true;
+            }
+        }
+        incident.responseMinutes = estimateResponseMinutes(incident.respondingStation, incident.lat, incident.lon);
+        return false;
+    }
+
+    // A unit back at its station takes the most urgent waiting incident.
+    // responseMinutes stays the travel leg the clock runs on; the recorded
+    // response time adds the wait. The record is stamped now, not with the
+    // original report time, so the store and the minute rings stay in time
+    // order.
+    private void dispatchQueued(int stationId, long now) {
+        Incident incident;
+        synchronized (this) {
+            incident = queue.pollFor(stationId);
+            if (incident == null) return;
+            float estimate = incident.responseMinutes;
+            float minutes = estimateResponseMinutes(stationId, incident.lat, incident.lon);
+            incident.responseMinutes = minutes;
+            int unit = roster.dispatch(stationId, incident.id, now + (long)(minutes * 60000));
+            if (unit < 0) {
+                incident.responseMinutes = estimate;
+                queue.offer(incident);
+                return;
+            }
+            incident.respondingStation = stationId;
+            incident.unitId = unit;
+        }
+        float waited = (now - incident.reportedAt) / 60000f;
+        float response = waited + incident.responseMinutes;
+        incidentStore.append(now, incident.severity, stationId, incident.lat, incident.lon, response, waited);
+        metrics.record(now, stationId, incident.severity, Math.round(response * 60.0));
+        etaService.track(incident);
+        Log.debug("DISPATCH", "Queued incident dispatched", "incident", incident.id, "waitedSeconds", (now - incident.reportedAt) / 1000);
+        for (DispatchListener listener : listeners) {
+            listener.incidentDispatched(incident);
+        }
+    }
+
+    // On-scene time grows with severity; the return leg mirrors the approach
+    private void advanceUnits() {
+        try {
+            advanceUnitsAt(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            // A failure here would cancel the clock for good
+            Log.error("ENGINE", "Unit update failed", e);
+        }
+    }
+
+    private void advanceUnitsAt(long now) {
+        for (int unit = 0; unit < roster.size(); unit++) {
+            long word = roster.word(unit);
+            int state = UnitRoster.stateOf(word);
+            if (state == UnitRoster.AVAILABLE || now < roster.dueAt(unit, word)) continue;
+
+            Incident incident = incidents.get(UnitRoster.incidentOf(word));
+            long legMillis = (long)(incident.responseMinutes * 60000);
+            if (state == UnitRoster.EN_ROUTE) {
+                roster.transition(unit, word, UnitRoster.ON_SCENE, now + incident.severity * 20 * 60000L);
+            } else if (state == UnitRoster.ON_SCENE) {
+                roster.transition(unit, word, UnitRoster.RETURNING, now + legMillis);
+            } else if (state == UnitRoster.RETURNING) {
+                if (roster.transition(unit, word, UnitRoster.AVAILABLE, 0)) {
+                    dispatchQueued(UnitRoster.stationOf(word), now);
+                }
+            }
+        }
+        reportUnitPositions(now);
+    }
+
+    // Stand-in AVL feed for units the server is not tracking: each committed
+    // unit reports a 1 Hz fix on the straight line between its station and
+    // the incident, through the same pipeline as server GPS messages. A
+    // full ring drops the fix rather than holding up the clock.
+    private void reportUnitPositions(long now) {
+        for (int unit = 0; unit < roster.size(); unit++) {
+            long word = roster.word(unit);
+            int state = UnitRoster.stateOf(word);
+            long due = roster.dueAt(unit, word);
+            if (state == UnitRoster.AVAILABLE || due == Long.MAX_VALUE || telemetry.hasLiveFeed(unit, now)) continue;
+
+            FireStation station = stations.get(UnitRoster.stationOf(word));
+            Incident incident = incidents.get(UnitRoster.incidentOf(word));
+            long legMillis = Math.max(1, (long)(incident.responseMinutes * 60000));
+            double progress = 1.0 - Math.max(0, due - now) / (double) legMillis;
+            progress = Math.max(0, Math.min(1, progress));
+
+            double fromLat = station.latitude, fromLon = station.longitude;
+            double toLat = incident.lat, toLon = incident.lon;
+            if (state == UnitRoster.RETURNING) {
+                fromLat = incident.lat; fromLon = incident.lon;
+                toLat = station.latitude; toLon = station.longitude;
+            } else if (state == UnitRoster.ON_SCENE) {
+                fromLat = toLat;
+                fromLon = toLon;
+                progress = 1;
+            }
+            double lat = fromLat + (toLat - fromLat) * progress;
+            double lon = fromLon + (toLon - fromLon) * progress;
+            float heading = (float) Math.toDegrees(Math.atan2((toLon - fromLon) * Math.cos(Math.toRadians(lat)), toLat - fromLat));
+            float speed = state == UnitRoster.ON_SCENE ? 0 : (float) EtaService.AVERAGE_SPEED_KMH;
+            telemetry.offer(unit, lat, lon, speed, heading, now);
+        }
+    }
+
+    // Incidents still open: waiting in the queue, or with a unit on the
+    // way or on scene
+    int activeIncidents() {
+        int active = queue.size();
+        for (int s = 0; s < stations.size(); s++) {
+            int[] states = roster.countByState(s);
+            active += states[UnitRoster.EN_ROUTE] + states[UnitRoster.ON_SCENE];
+        }
+        return active;
+    }
+
+    // Units free to dispatch times the share of the road network inside
+    // the default response time, as a percentage; -1 until the first
+    // coverage map is ready
+    double systemHealth() {
+        CoverageMap map = coverage.latest(CoverageEngine.DEFAULT_MINUTES);
+        if (map == null || roster.size() == 0) return -1;
+        return 100.0 * roster.available() / roster.size() * map.roadCoverage();
+    }
+
+    // Straight-line distance at the average urban response speed
+    float estimateResponseMinutes(int stationId, double lat, double lon) {
+        FireStation s = stations.get(stationId);
+        double km = Math.hypot(s.latitude - lat, s.longitude - lon) * 111;
+        return (float)(km / EtaService.AVERAGE_SPEED_KMH * 60.0);
+    }
+
+    private void registerGauges() {
+        Instrumentation.gauge("firebrigade_incidents", "", "Incidents reported this session", incidents::size);
+        Instrumentation.gauge("firebrigade_units_available", "", "Units free to dispatch", () -> roster.available());
+        Instrumentation.gauge("firebrigade_incidents_queued", "", "Incidents waiting for a free unit", () -> queue.size());
+        Instrumentation.counter("firebrigade_incidents_rejected_total", "", "Incidents dropped because the queue was full", rejected::sum);
+        Instrumentation.counter("firebrigade_telemetry_fixes_total", "result=\"received\"", "Vehicle fixes offered to the telemetry pipeline", () -> telemetry.received());
+        Instrumentation.counter("firebrigade_telemetry_fixes_total", "result=\"dropped\"", "Vehicle fixes offered to the telemetry pipeline", () -> telemetry.dropped());
+        Instrumentation.gauge("firebrigade_graph_version", "", "Road graph edit version", () -> graph.version());
+        Instrumentation.counter("firebrigade_log_dropped_total", "", "Log records dropped because the ring was full", Log::dropped);
+        // GET /queue reports the aging rate, /queue?aging=3 changes it
+        Instrumentation.control("/queue", query -> {
+            if (query != null && query.startsWith("aging=")) {
+                queue.setAgingPerMinute(Double.parseDouble(query.substring("aging=".length())));
+            }
+            return "aging=" + queue.getAgingPerMinute() + " waiting=" + queue.size();
+        });
+        Instrumentation.startEndpoint();
+    }
+
+    List<FireStation> getStations() {
+        return Collections.unmodifiableList(stations);
+    }
+
+    // Everything reported so far, as of this call
+    List<Incident> getIncidents() {
+        return incidents.view();
+    }
+
+    IncidentStore getIncidentStore() {
+        return incidentStore;
+    }
+
+    MetricsEngine getMetrics() {
+        return metrics;
+    }
+
+    UnitRoster getRoster() {
+        return roster;
+    }
+
+    IncidentQueue getQueue() {
+        return queue;
+    }
+
+    TelemetryPipeline getTelemetry() {
+        return telemetry;
+    }
+
+    GraphDS getGraph() {
+        return graph;
+    }
+
+    double[] getNodeLats() {
+        return nodeLats;
+    }
+
+    double[] getNodeLons() {
+        return nodeLons;
+    }
+
+    RoadIndex getRoadIndex() {
+        return roadIndex;
+    }
+
+    ReverseGeocoder getGeocoder() {
+        return geocoder;
+    }
+
+    RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    CoverageEngine getCoverage() {
+        return coverage;
+    }
+
+    List<RoadNetwork> getRoads() {
+        return Collections.unmodifiableList(roadNetwork);
+    }
+
+    WhatIfSimulator newSimulator() {
+        return new WhatIfSimulator(graph, nodeLats, nodeLons, nodeIndex, roadNetwork);
+    }
+}
+
+// Append-only incident list. Appends are serialised; readers take a
+// lock-free view of everything published so far. The backing array is
+// replaced when it grows, never modified below the published size.
+class IncidentLog {
+    private volatile Incident[] items = new Incident[256];
+    private volatile int size;
+
+    synchronized void add(Incident incident) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size] = incident;
+        size = size + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Incident get(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException("Incident " + index);
+        return items[index];
+    }
+
+    List<Incident> view() {
+        int n = size;
+        Incident[] snapshot = items;
+        return new AbstractList<Incident>() {
+            @Override
+            public Incident get(int index) {
+                if (index >= n) throw new IndexOutOfBoundsException("Incident " + index);
+                return snapshot[index];
+            }
+
+            @Override
+            public int size() {
+                return n;
+            }
+        };
+    }
+}
+
+// Incidents waiting because every unit is committed, as in the backend's
+// IncidentQueue but served by priority rather than arrival order:
+//   priority = severity points + aging x minutes waited - distance x km
+// Waiting time grows at the same rate for every entry, so the order only
+// depends on the fixed key  severity points - aging x minute enqueued -
+// distance x km  and nothing has to be re-sorted as time passes. Each
+// incident sits in the heaps of its nearest stations, keyed with the
+// distance to that station, and in one global heap keyed with the nearest
+// of them. When a unit frees up it takes the head of its station's heap
+// (or the global head if none of its neighbours is waiting) and the
+// incident leaves its other heaps through their position indexes, all in
+// O(log n).
+class IncidentQueue {
+    static final int DEFAULT_CAPACITY = 100_000;
+    static final int CANDIDATE_STATIONS = 4;
+    static final double[] SEVERITY_POINTS = {0, 0, 30, 60};
+    static final double DEFAULT_AGING_PER_MINUTE = 2;
+    static final double POINTS_PER_KM = 2;
+
+    private final List<FireStation> stations;
+    private final int candidates;
+    private final long epoch = System.currentTimeMillis();
+    private volatile double agingPerMinute;
+
+    private final Incident[] waiting;
+    private final long[] sequence;
+    private final int[] nearStations;
+    private final double[] nearKm;
+    private final int[] freeSlots;
+    private int freeCount;
+    private long nextSequence;
+    private final HashMap<Integer, Integer> slotOfIncident = new HashMap<>();
+    private final IndexedHeap global;
+    private final IndexedHeap[] byStation;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    IncidentQueue(List<FireStation> stations, int capacity, double agingPerMinute) {
+        this.stations = stations;
+        this.candidates = Math.min(CANDIDATE_STATIONS, stations.size());
+        this.agingPerMinute = checkAging(agingPerMinute);
+        waiting = new Incident[capacity];
+        sequence = new long[capacity];
+        nearStations = new int[capacity * candidates];
+        nearKm = new double[capacity * candidates];
+        freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++) freeSlots[i] = capacity - 1 - i;
+        freeCount = capacity;
+        global = new IndexedHeap(sequence);
+        byStation = new IndexedHeap[stations.size()];
+        for (int i = 0; i < byStation.length; i++) byStation[i] = new IndexedHeap(sequence);
+    }
+
+    // -Dfirebrigade.queue.aging sets how many priority points a minute of
+    // waiting is worth (/queue?aging= on the metrics endpoint changes it
+    // at runtime); at the default a low-severity call overtakes a fresh
+    // critical one after half an hour
+    static IncidentQueue fromProperties(List<FireStation> stations) {
+        double aging = DEFAULT_AGING_PER_MINUTE;
+        try {
+            aging = checkAging(Double.parseDouble(System.getProperty("firebrigade.queue.aging", String.valueOf(aging))));
+        } catch (IllegalArgumentException e) {
+            aging = DEFAULT_AGING_PER_MINUTE;
+            Log.warn("QUEUE", "Ignoring firebrigade.queue.aging", "default", (long) aging);
+        }
+        return new IncidentQueue(stations, DEFAULT_CAPACITY, aging);
+    }
+
+    // A NaN or infinite rate would make every key NaN or infinite and
+    // leave the heaps in arbitrary order
+    static double checkAging(double aging) {
+        if (!Double.isFinite(aging) || aging < 0) {
+            throw new IllegalArgumentException("aging must be a finite number >= 0");
+        }
+        return aging;
+    }
+
+    // Queues the incident from the time it was reported; false when full
+    boolean offer(Incident incident) {
+        lock.lock();
+        try {
+            if (freeCount == 0 || slotOfIncident.containsKey(incident.id)) return false;
+            int slot = freeSlots[--freeCount];
+            waiting[slot] = incident;
+            sequence[slot] = nextSequence++;
+            slotOfIncident.put(incident.id, slot);
+            findNearStations(slot, incident.lat, incident.lon);
+            for (int j = 0; j < candidates; j++) {
+                int n = slot * candidates + j;
+                byStation[nearStations[n]].insert(slot, key(incident, nearKm[n]));
+            }
+            global.insert(slot, key(incident, nearKm[slot * candidates]));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Most urgent incident for a unit at this station, or null if nothing waits
+    Incident pollFor(int stationId) {
+        lock.lock();
+        try {
+            int slot = byStation[stationId].peek();
+            if (slot < 0) slot = global.peek();
+            return slot < 0 ? null : removeSlot(slot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean contains(int incidentId) {
+        lock.lock();
+        try {
+            return slotOfIncident.containsKey(incidentId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return waiting.length - freeCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double getAgingPerMinute() {
+        return agingPerMinute;
+    }
+
+    // Changing the rate changes every key, so this re-keys the whole queue
+    void setAgingPerMinute(double aging) {
+        checkAging(aging);
+        lock.lock();
+        try {
+            agingPerMinute = aging;
+            for (Map.Entry<Integer, Integer> entry : slotOfIncident.entrySet()) {
+                int slot = entry.getValue();
+                Incident incident = waiting[slot];
+                for (int j = 0; j < candidates; j++) {
+                    int n = slot * candidates + j;
+                    byStation[nearStations[n]].update(slot, key(incident, nearKm[n]));
+                }
+                global.update(slot, key(incident, nearKm[slot * candidates]));
+            }
+        } finally {
+            lock.unlock();
+        }
+        Log.info("QUEUE", "Aging rate changed", "waiting", size());
+    }
+
+    private double key(Incident incident, double km) {
+        int severity = Math.max(0, Math.min(SEVERITY_POINTS.length - 1, incident.severity));
+        return SEVERITY_POINTS[severity] - agingPerMinute * (incident.reportedAt - epoch) / 60000.0 - POINTS_PER_KM * km;
+    }
+
+    private Incident removeSlot(int slot) {
+        for (int j = 0; j < candidates; j++) {
+            byStation[nearStations[slot * candidates + j]].remove(slot);
+        }
+        global.remove(slot);
+        Incident incident = waiting[slot];
+        waiting[slot] = null;
+        slotOfIncident.remove(incident.id);
+        freeSlots[freeCount++] = slot;
+        return incident;
+    }
+
+    // Keeps the closest few stations, nearest first, by insertion into a
+    // short sorted run
+    private void findNearStations(int slot, double lat, double lon) {
+        int base = slot * candidates, found = 0;
+        for (FireStation s : stations) {
+            double km = Math.hypot(s.latitude - lat, s.longitude - lon) * 111;
+            if (found == candidates && km >= nearKm[base + found - 1]) continue;
+            int i = found < candidates ? found++ : found - 1;
+            while (i > 0 && nearKm[base + i - 1] > km) {
+                nearKm[base + i] = nearKm[base + i - 1];
+                nearStations[base + i] = nearStations[base + i - 1];
+                i--;
+            }
+            nearKm[base + i] = km;
+            nearStations[base + i] = s.id;
+        }
+    }
+}
+
+// Binary max-heap of queue slots with a slot-to-position index, so any
+// entry can be removed or re-keyed in O(log n). Equal keys are served in
+// arrival order. Arrays grow on demand, so a heap per station only costs
+// what that station actually has waiting.
+class IndexedHeap {
+    private final long[] sequence;
+    private int[] heap = new int[16];
+    private double[] keys = new double[16];
+    private int[] position = new int[0];
+    private int size;
+
+    IndexedHeap(long[] sequence) {
+        this.sequence = sequence;
+    }
+
+    void insert(int slot, double key) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        if (slot >= position.length) {
+            int old = position.length;
+            position = Arrays.copyOf(position, Math.max(slot + 1, old * 2));
+            Arrays.fill(position, old, position.length, -1);
+        }
+        heap[size] = slot;
+        keys[size] = key;
+        position[slot] = size;
+        siftUp(size++);
+    }
+
+    void update(int slot, double key) {
+        int i = position[slot];
+        double old = keys[i];
+        keys[i] = key;
+        if (key > old) siftUp(i);
+        else siftDown(i);
+    }
+
+    boolean remove(int slot) {
+        if (slot >= position.length || position[slot] < 0) return false;
+        int i = position[slot];
+        position[slot] = -1;
+        size--;
+        if (i < size) {
+            int moved = heap[size];
+            move(size, i);
+            siftDown(i);
+            siftUp(position[moved]);
+        }
+        return true;
+    }
+
+    int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!above(i, parent)) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && above(child + 1, child)) child++;
+            if (!above(child, i)) break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private boolean above(int a, int b) {
+        if (keys[a] != keys[b]) return keys[a] > keys[b];
+        return sequence[heap[a]] < sequence[heap[b]];
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        keys[to] = keys[from];
+        position[heap[to]] = to;
+    }
+
+    private void swap(int a, int b) {
+        int slot = heap[a];
+        double key = keys[a];
+        move(b, a);
+        heap[b] = slot;
+        keys[b] = key;
+        position[slot] = b;
+    }
+}
+
+// Render-side view of the road network. Every polyline is projected once
+// to Web Mercator pixels at zoom 0 and simplified with Douglas-Peucker for
+// each whole zoom level (half a pixel tolerance at that zoom). A uniform
+// grid over the road bounding boxes answers viewport queries.
+class RoadIndex {
+    static final int MIN_ZOOM = 11, MAX_ZOOM = 18;
+    // Residential and service roads from an import only show from zoom 14
+    static final int MINOR_ROAD_WIDTH = 10;
+    static final double MINOR_ROAD_MIN_ZOOM = 14;
+    private static final int GRID = 64;
+
+    private final float[][][] levels;
+    private final float[] bounds;
+    // Zoom 0 world pixels are around 180 here, where a float only resolves
+    // about 4 px at MAX_ZOOM, so everything is stored relative to the
+    // north-west corner of the network
+    private final double originX, originY;
+    private final int[][] cells;
+    private final float gridMinX, gridMinY, cellW, cellH;
+    private final HashMap<Long, Integer> byEdge = new HashMap<>();
+
+    RoadIndex(List<RoadNetwork> roads) {
+        int n = roads.size();
+        levels = new float[n][][];
+        bounds = new float[n * 4];
+        double ox = Double.MAX_VALUE, oy = Double.MAX_VALUE;
+        for (RoadNetwork road : roads) {
+            for (int i = 0; i < road.geometry.length; i += 2) {
+                ox = Math.min(ox, worldX(road.geometry[i + 1]));
+                oy = Math.min(oy, worldY(road.geometry[i]));
+            }
+        }
+        originX = n > 0 ? ox : 0;
+        originY = n > 0 ? oy : 0;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int r = 0; r < n; r++) {
+            RoadNetwork road = roads.get(r);
+            float[] full = project(road.geometry);
+            levels[r] = new float[MAX_ZOOM - MIN_ZOOM + 1][];
+            for (int z = MAX_ZOOM; z >= MIN_ZOOM; z--) {
+                float[] source = z == MAX_ZOOM ? full : levels[r][z - MIN_ZOOM + 1];
+                levels[r][z - MIN_ZOOM] = simplify(source, (float)(0.5 / Math.pow(2, z)));
+            }
+            float bx0 = Float.MAX_VALUE, by0 = Float.MAX_VALUE, bx1 = -Float.MAX_VALUE, by1 = -Float.MAX_VALUE;
+            for (int i = 0; i < full.length; i += 2) {
+                bx0 = Math.min(bx0, full[i]);
+                bx1 = Math.max(bx1, full[i]);
+                by0 = Math.min(by0, full[i + 1]);
+                by1 = Math.max(by1, full[i + 1]);
+            }
+            bounds[r * 4] = bx0;
+            bounds[r * 4 + 1] = by0;
+            bounds[r * 4 + 2] = bx1;
+            bounds[r * 4 + 3] = by1;
+            minX = Math.min(minX, bx0);
+            minY = Math.min(minY, by0);
+            maxX = Math.max(maxX, bx1);
+            maxY = Math.max(maxY, by1);
+            byEdge.putIfAbsent(edgeKey(road.from, road.to), r);
+        }
+
+        gridMinX = n > 0 ? minX : 0;
+        gridMinY = n > 0 ? minY : 0;
+        cellW = n > 0 ? Math.max(1e-9f, (maxX - minX) / GRID) : 1;
+        cellH = n > 0 ? Math.max(1e-9f, (maxY - minY) / GRID) : 1;
+
+        // Count, then fill, so each cell is a plain int[] of road ids
+        int[] counts = new int[GRID * GRID];
+        for (int r = 0; r < n; r++) forEachCell(r, c -> counts[c]++);
+        cells = new int[GRID * GRID][];
+        for (int c = 0; c < cells.length; c++) cells[c] = new int[counts[c]];
+        int[] fill = new int[GRID * GRID];
+        for (int r = 0; r < n; r++) {
+            int road = r;
+            forEachCell(r, c -> cells[c][fill[c]++] = road);
+        }
+    }
+
+    static double worldX(double lon) {
+        return (lon + 180.0) / 360.0 * 256;
+    }
+
+    static double worldY(double lat) {
+        double sin = Math.sin(Math.toRadians(lat));
+        return (1 - Math.log((1 + sin) / (1 - sin)) / 2 / Math.PI) / 2.0 * 256;
+    }
+
+    private float[] project(double[] geometry) {
+        float[] pts = new float[geometry.length];
+        for (int i = 0; i < geometry.length; i += 2) {
+            pts[i] = (float) (worldX(geometry[i + 1]) - originX);
+            pts[i + 1] = (float) (worldY(geometry[i]) - originY);
+        }
+        return pts;
+    }
+
+    // Zoom 0 world pixel position of the point stored as 0,0
+    double originX() {
+        return originX;
+    }
+
+    double originY() {
+        return originY;
+    }
+
+    private static long edgeKey(int u, int v) {
+        return ((long) Math.min(u, v) << 32) | Math.max(u, v);
+    }
+
+    private int cellX(float x) {
+        return Math.max(0, Math.min(GRID - 1, (int)((x - gridMinX) / cellW)));
+    }
+
+    private int cellY(float y) {
+        return Math.max(0, Math.min(GRID - 1, (int)((y - gridMinY) / cellH)));
+    }
+
+    private void forEachCell(int r, IntConsumer action) {
+        for (int cy = cellY(bounds[r * 4 + 1]); cy <= cellY(bounds[r * 4 + 3]); cy++) {
+            for (int cx = cellX(bounds[r * 4]); cx <= cellX(bounds[r * 4 + 2]); cx++) {
+                action.accept(cy * GRID + cx);
+            }
+        }
+    }
+
+    // Roads whose bounding box intersects the box, in zoom 0 world pixels
+    int[] query(double minX, double minY, double maxX, double maxY) {
+        minX -= originX;
+        maxX -= originX;
+        minY -= originY;
+        maxY -= originY;
+        BitSet seen = new BitSet(levels.length);
+        for (int cy = cellY((float) minY); cy <= cellY((float) maxY); cy++) {
+            for (int cx = cellX((float) minX); cx <= cellX((float) maxX); cx++) {
+                for (int r : cells[cy * GRID + cx]) {
+                    if (bounds[r * 4] <= maxX && bounds[r * 4 + 2] >= minX
+                        && bounds[r * 4 + 1] <= maxY && bounds[r * 4 + 3] >= minY) {
+                        seen.set(r);
+                    }
+                }
+            }
+        }
+        return seen.stream().toArray();
+    }
+
+    // Packed x,y polyline in zoom 0 world pixels relative to the origin,
+    // simplified for 'zoom'
+    float[] geometry(int road, double zoom) {
+        int z = (int) Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, Math.floor(zoom)));
+        return levels[road][z - MIN_ZOOM];
+    }
+
+    // Larger side of the road's bounding box, in zoom 0 world pixels
+    float extent(int road) {
+        return Math.max(bounds[road * 4 + 2] - bounds[road * 4], bounds[road * 4 + 3] - bounds[road * 4 + 1]);
+    }
+
+    int roadBetween(int u, int v) {
+        return byEdge.getOrDefault(edgeKey(u, v), -1);
+    }
+
+    // Iterative Douglas-Peucker; endpoints are always kept
+    static float[] simplify(float[] pts, float tolerance) {
+        int n = pts.length / 2;
+        if (n <= 2) return pts;
+        boolean[] keep = new boolean[n];
+        keep[0] = keep[n - 1] = true;
+        int[] stack = new int[n * 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        float tol2 = tolerance * tolerance;
+        while (top > 0) {
+            int last = stack[--top], first = stack[--top];
+            float ax = pts[first * 2], ay = pts[first * 2 + 1];
+            float bx = pts[last * 2], by = pts[last * 2 + 1];
+            int farthest = -1;
+            double maxDist = tol2;
+            for (int i = first + 1; i < last; i++) {
+                double d = Line2D.ptSegDistSq(ax, ay, bx, by, pts[i * 2], pts[i * 2 + 1]);
+                if (d > maxDist) {
+                    maxDist = d;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        int kept = 0;
+        for (boolean k : keep) if (k) kept++;
+        if (kept == n) return pts;
+        float[] result = new float[kept * 2];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (keep[i]) {
+                result[j++] = pts[i * 2];
+                result[j++] = pts[i * 2 + 1];
+            }
+        }
+        return result;
+    }
+}
+
+// Computes which part of the map each station reaches within N minutes at
+// the average response speed. Each station runs one Dijkstra bounded by
+// that distance, in parallel; reached roads (including the reachable part
+// of roads that run out of time halfway) are rasterised onto a grid of
+// roughly 220 m cells with a one-cell buffer either side. Results are
+// cached per graph version and recomputed in the background after road
+// edits.
+class CoverageEngine {
+    static final int DEFAULT_MINUTES = 8;
+    static final double CELL_DEG = 0.002;
+
+    private final GraphDS graph;
+    private final List<FireStation> stations;
+    private final List<RoadNetwork> roads;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "coverage");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile CoverageMap latest;
+    private final AtomicBoolean computing = new AtomicBoolean();
+
+    CoverageEngine(GraphDS graph, List<FireStation> stations, List<RoadNetwork> roads) {
+        this.graph = graph;
+        this.stations = stations;
+        this.roads = roads;
+    }
+
+    // Last finished result (possibly for an older graph version, or null
+    // before the first run); schedules a recompute if it is out of date.
+    // Callers race here from the EDT and the engine, so only the one that
+    // claims the flag schedules.
+    CoverageMap latest(int minutes) {
+        CoverageMap map = latest;
+        boolean stale = map == null || map.version != graph.version() || map.minutes != minutes;
+        if (stale && computing.compareAndSet(false, true)) {
+            background.execute(() -> {
+                try {
+                    latest = compute(minutes);
+                } finally {
+                    computing.set(false);
+                }
+            });
+        }
+        return map;
+    }
+
+    // Road lengths and closures come from one graph snapshot, the same
+    // copy-on-write state the route trees are built from
+    CoverageMap compute(int minutes) {
+        GraphSnapshot snap = graph.snapshot();
+        long version = snap.version;
+        int budget = (int) (minutes / 60.0 * EtaService.AVERAGE_SPEED_KMH * 1000);
+        CoverageMap map = CoverageMap.forRoads(roads, version, minutes);
+        for (RoadNetwork road : roads) {
+            map.rasterize(road.geometry, 0, 1, map.roadCells);
+        }
+
+        BitSet[] byStation = stations.parallelStream().map(station -> {
+            ShortestPathTree tree = graph.shortestPathTree(station.node, budget);
+            BitSet cells = new BitSet();
+            for (RoadNetwork road : roads) {
+                int e = snap.edgeIndex(road.from, road.to);
+                if (e >= 0 && snap.blocked[e]) continue;
+                double length = Math.max(1, e >= 0 ? snap.weights[e] : road.distance);
+                int du = tree.dist[road.from], dv = tree.dist[road.to];
+                if (du <= budget) {
+                    map.rasterize(road.geometry, 0, Math.min(1, (budget - du) / length), cells);
+                }
+                if (dv <= budget) {
+                    map.rasterize(road.geometry, Math.max(0, 1 - (budget - dv) / length), 1, cells);
+                }
+            }
+            map.markAround(station.latitude, station.longitude, cells);
+            return cells;
+        }).toArray(BitSet[]::new);
+
+        for (BitSet cells : byStation) map.covered.or(cells);
+        map.byStation = byStation;
+        return map;
+    }
+}
+
+// Raster coverage mask over the road network's bounding box
+class CoverageMap {
+    final long version;
+    final int minutes;
+    final double minLat, minLon, cellLat, cellLon;
+    final int cols, rows;
+    final double cellKm2;
+    final BitSet covered = new BitSet();
+    final BitSet roadCells = new BitSet();
+    BitSet[] byStation = new BitSet[0];
+
+    private CoverageMap(long version, int minutes, double minLat, double minLon, double maxLat, double maxLon) {
+        this.version = version;
+        this.minutes = minutes;
+        this.cellLat = CoverageEngine.CELL_DEG;
+        this.cellLon = CoverageEngine.CELL_DEG / Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        this.minLat = minLat - cellLat;
+        this.minLon = minLon - cellLon;
+        this.rows = (int) Math.ceil((maxLat - this.minLat) / cellLat) + 2;
+        this.cols = (int) Math.ceil((maxLon - this.minLon) / cellLon) + 2;
+        this.cellKm2 = (cellLat * 111.32) * (CoverageEngine.CELL_DEG * 111.32);
+    }
+
+    static CoverageMap forRoads(List<RoadNetwork> roads, long version, int minutes) {
+        double minLat = Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        for (RoadNetwork road : roads) {
+            for (int i = 0; i < road.geometry.length; i += 2) {
+                minLat = Math.min(minLat, road.geometry[i]);
+                maxLat = Math.max(maxLat, road.geometry[i]);
+                minLon = Math.min(minLon, road.geometry[i + 1]);
+                maxLon = Math.max(maxLon, road.geometry[i + 1]);
+            }
+        }
+        return new CoverageMap(version, minutes, minLat, minLon, maxLat, maxLon);
+    }
+
+    double coveredKm2() {
+        return covered.cardinality() * cellKm2;
+    }
+
+    double gapKm2() {
+        BitSet gaps = (BitSet) roadCells.clone();
+        gaps.andNot(covered);
+        return gaps.cardinality() * cellKm2;
+    }
+
+    // Share of the road cells that some station covers
+    double roadCoverage() {
+        int roads = roadCells.cardinality();
+        if (roads == 0) return 0;
+        BitSet reached = (BitSet) roadCells.clone();
+        reached.and(covered);
+        return reached.cardinality() / (double) roads;
+    }
+
+    double stationKm2(int stationId) {
+        return stationId < byStation.length ? byStation[stationId].cardinality() * cellKm2 : 0;
+    }
+
+    // {minLat, minLon, maxLat, maxLon}
+    double[] cellBounds(int cell) {
+        int row = cell / cols, col = cell % cols;
+        double lat = minLat + row * cellLat, lon = minLon + col * cellLon;
+        return new double[]{lat, lon, lat + cellLat, lon + cellLon};
+    }
+
+    void markAround(double lat, double lon, BitSet cells) {
+        int row = (int) ((lat - minLat) / cellLat), col = (int) ((lon - minLon) / cellLon);
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = col - 1; c <= col + 1; c++) {
+                if (r >= 0 && r < rows && c >= 0 && c < cols) cells.set(r * cols + c);
+            }
+        }
+    }
+
+    // Marks the stretch of a polyline between two fractions of its length,
+    // sampling every half cell
+    void rasterize(double[] geometry, double fromFraction, double toFraction, BitSet cells) {
+        if (toFraction <= fromFraction) return;
+        double total = GeoJsonImporter.lengthKm(geometry);
+        double from = fromFraction * total, to = toFraction * total;
+        double step = CoverageEngine.CELL_DEG * 111.32 / 2;
+        double walked = 0;
+        for (int i = 2; i < geometry.length; i += 2) {
+            double lat1 = geometry[i - 2], lon1 = geometry[i - 1], lat2 = geometry[i], lon2 = geometry[i + 1];
+            double seg = GeoJsonImporter.lengthKm(new double[]{lat1, lon1, lat2, lon2});
+            double start = Math.max(from, walked), end = Math.min(to, walked + seg);
+            for (double d = start; d <= end; d += step) {
+                double t = seg > 0 ? (d - walked) / seg : 0;
+                markAround(lat1 + (lat2 - lat1) * t, lon1 + (lon2 - lon1) * t, cells);
+            }
+            if (end >= start && seg > 0) {
+                double t = (end - walked) / seg;
+                markAround(lat1 + (lat2 - lat1) * t, lon1 + (lon2 - lon1) * t, cells);
+            }
+            walked += seg;
+            if (walked > to) break;
+        }
+    }
+}
+
+// Discrete-event replay of an incident stream against a station and unit
+// configuration. Travel times come from one shortest-path tree per station
+// node over the current graph; a unit is busy for the trip out, the
+// severity-dependent time on scene and the trip back. When every unit is
+// committed, incidents wait in arrival order. Scenarios are independent
+// and run as one fork-join task each.
+class WhatIfSimulator {
+    static final int TARGET_SECONDS = 8 * 60;
+
+    private final GraphDS graph;
+    private final double[] nodeLats, nodeLons;
+    private final NodeIndex nodes;
+    private final List<RoadNetwork> roads;
+
+    WhatIfSimulator(GraphDS graph, double[] nodeLats, double[] nodeLons, NodeIndex nodes, List<RoadNetwork> roads) {
+        this.graph = graph;
+        this.nodeLats = nodeLats;
+        this.nodeLons = nodeLons;
+        this.nodes = nodes;
+        this.roads = roads;
+    }
+
+    static class Scenario {
+        final String name;
+        final double[] lats, lons;
+        final int[] nodes, units;
+
+        Scenario(String name, double[] lats, double[] lons, int[] nodes, int[] units) {
+            this.name = name;
+            this.lats = lats;
+            this.lons = lons;
+            this.nodes = nodes;
+            this.units = units;
+        }
+
+        static Scenario of(String name, List<FireStation> stations) {
+            int n = stations.size();
+            double[] lats = new double[n], lons = new double[n];
+            int[] nodes = new int[n], units = new int[n];
+            for (int i = 0; i < n; i++) {
+                FireStation s = stations.get(i);
+                lats[i] = s.latitude;
+                lons[i] = s.longitude;
+                nodes[i] = s.node;
+                units[i] = s.units;
+            }
+            return new Scenario(name, lats, lons, nodes, units);
+        }
+
+        Scenario withExtraUnit(int station, String name) {
+            int[] more = units.clone();
+            more[station]++;
+            return new Scenario(name, lats, lons, nodes, more);
+        }
+
+        Scenario withUnitMoved(int from, int to, String name) {
+            int[] moved = units.clone();
+            moved[from]--;
+            moved[to]++;
+            return new Scenario(name, lats, lons, nodes, moved);
+        }
+
+        Scenario withStationAt(int station, double lat, double lon, int node, String name) {
+            double[] newLats = lats.clone(), newLons = lons.clone();
+            int[] newNodes = nodes.clone();
+            newLats[station] = lat;
+            newLons[station] = lon;
+            newNodes[station] = node;
+            return new Scenario(name, newLats, newLons, newNodes, units);
+        }
+    }
+
+    static class SimIncident {
+        final long time;
+        final int severity;
+        final double lat, lon;
+        int node;
+
+        SimIncident(long time, int severity, double lat, double lon) {
+            this.time = time;
+            this.severity = severity;
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+
+    static class Result {
+        final Scenario scenario;
+        final QuantileSketch response = new QuantileSketch();
+        final QuantileSketch[] bySeverity = {new QuantileSketch(), new QuantileSketch(), new QuantileSketch(), new QuantileSketch()};
+        long withinTarget, queued, maxWaitSeconds;
+
+        Result(Scenario scenario) {
+            this.scenario = scenario;
+        }
+    }
+
+    // Poisson arrivals (times in seconds) at random points along random
+    // road vertices, scattered by ~300 m; severity is 50% low, 35% medium,
+    // 15% critical
+    List<SimIncident> synthetic(int days, double perDay, long seed) {
+        Random random = new Random(seed);
+        ArrayList<SimIncident> result = new ArrayList<>();
+        double meanGap = 86400.0 / perDay;
+        for (double t = 0; t < days * 86400.0; t += -Math.log(1 - random.nextDouble()) * meanGap) {
+            double[] g = roads.get(random.nextInt(roads.size())).geometry;
+            int i = random.nextInt(g.length / 2 - 1) * 2;
+            double f = random.nextDouble();
+            double lat = g[i] + (g[i + 2] - g[i]) * f + random.nextGaussian() * 0.003;
+            double lon = g[i + 1] + (g[i + 3] - g[i + 1]) * f + random.nextGaussian() * 0.003;
+            double p = random.nextDouble();
+            result.add(new SimIncident((long) t, p < 0.5 ? 1 : (p < 0.85 ? 2 : 3), lat, lon));
+        }
+        return result;
+    }
+
+    // Recorded incidents at the time they were reported, in seconds since
+    // the first one. A queued incident is stored at its dispatch, so its
+    // wait is taken off and the stream is re-sorted, since run() replays
+    // in order.
+    List<SimIncident> fromHistory(IncidentStore store) {
+        List<IncidentBlock> blocks = store.snapshot();
+        long origin = Long.MAX_VALUE;
+        for (IncidentBlock block : blocks) {
+            for (int i = 0; i < block.size; i++) origin = Math.min(origin, reportedAt(block, i));
+        }
+        ArrayList<SimIncident> result = new ArrayList<>();
+        for (IncidentBlock block : blocks) {
+            for (int i = 0; i < block.size; i++) {
+                result.add(new SimIncident((reportedAt(block, i) - origin) / 1000, block.severities[i], block.lats[i], block.lons[i]));
+            }
+        }
+        result.sort(Comparator.comparingLong(inc -> inc.time));
+        return result;
+    }
+
+    private static long reportedAt(IncidentBlock block, int row) {
+        return block.timestamps[row] - (long) (block.waitMinutes[row] * 60000);
+    }
+
+    // The station moved to the centre of the incidents it is the nearest
+    // station to, snapped to the road graph; null if it is nearest to none
+    Scenario relocatedToDemand(Scenario base, int station, List<SimIncident> incidents, String name) {
+        double sumLat = 0, sumLon = 0;
+        int count = 0;
+        for (SimIncident inc : incidents) {
+            int nearest = 0;
+            double best = Double.MAX_VALUE;
+            for (int s = 0; s < base.lats.length; s++) {
+                double d = Math.hypot(base.lats[s] - inc.lat, base.lons[s] - inc.lon);
+                if (d < best) {
+                    best = d;
+                    nearest = s;
+                }
+            }
+            if (nearest == station) {
+                sumLat += inc.lat;
+                sumLon += inc.lon;
+                count++;
+            }
+        }
+        if (count == 0) return null;
+        int node = nodes.nearest(sumLat / count, sumLon / count);
+        return base.withStationAt(station, nodeLats[node], nodeLons[node], node, name);
+    }
+
+    List<Result> runAll(List<Scenario> scenarios, List<SimIncident> incidents) {
+        incidents.parallelStream().forEach(inc -> inc.node = nodes.nearest(inc.lat, inc.lon));
+        ArrayList<RecursiveTask<Result>> tasks = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            tasks.add(new RecursiveTask<Result>() {
+                @Override
+                protected Result compute() {
+                    return run(scenario, incidents);
+                }
+            });
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveTask<Void>() {
+            @Override
+            protected Void compute() {
+                ForkJoinTask.invokeAll(tasks);
+                return null;
+            }
+        });
+        ArrayList<Result> results = new ArrayList<>();
+        for (RecursiveTask<Result> task : tasks) results.add(task.join());
+        return results;
+    }
+
+    // Incidents must be sorted by time and have their node assigned
+    Result run(Scenario scenario, List<SimIncident> incidents) {
+        int stationCount = scenario.nodes.length;
+        ShortestPathTree[] trees = new ShortestPathTree[stationCount];
+        for (int s = 0; s < stationCount; s++) trees[s] = graph.shortestPathTree(scenario.nodes[s]);
+
+        Result result = new Result(scenario);
+        int[] free = scenario.units.clone();
+        // Events: {time, station} for units coming back into service
+        PriorityQueue<long[]> returns = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        ArrayDeque<SimIncident> waiting = new ArrayDeque<>();
+
+        for (SimIncident incident : incidents) {
+            while (!returns.isEmpty() && returns.peek()[0] <= incident.time) {
+                long[] back = returns.poll();
+                int station = (int) back[1];
+                free[station]++;
+                if (!waiting.isEmpty()) dispatch(scenario, trees, waiting.poll(), station, back[0], free, returns, result);
+            }
+            int best = -1;
+            long bestTravel = Long.MAX_VALUE;
+            for (int s = 0; s < stationCount; s++) {
+                if (free[s] == 0) continue;
+                long travel = travelSeconds(scenario, trees, s, incident);
+                if (travel < bestTravel) {
+                    bestTravel = travel;
+                    best = s;
+                }
+            }
+            if (best < 0) {
+                waiting.add(incident);
+                result.queued++;
+            } else {
+                dispatch(scenario, trees, incident, best, incident.time, free, returns, result);
+            }
+        }
+        // Drain calls still waiting when the stream ends
+        while (!waiting.isEmpty() && !returns.isEmpty()) {
+            long[] back = returns.poll();
+            free[(int) back[1]]++;
+            dispatch(scenario, trees, waiting.poll(), (int) back[1], back[0], free, returns, result);
+        }
+        return result;
+    }
+
+    private void dispatch(Scenario scenario, ShortestPathTree[] trees, SimIncident incident, int station, long now,
+                          int[] free, PriorityQueue<long[]> returns, Result result) {
+        free[station]--;
+        long travel = travelSeconds(scenario, trees, station, incident);
+        long wait = now - incident.time;
+        long response = wait + travel;
+        result.response.record(response);
+        result.bySeverity[incident.severity].record(response);
+        if (response <= TARGET_SECONDS) result.withinTarget++;
+        result.maxWaitSeconds = Math.max(result.maxWaitSeconds, wait);
+        long onScene = incident.severity * 20 * 60L;
+        returns.add(new long[]{now + travel + onScene + travel, station});
+    }
+
+    private long travelSeconds(Scenario scenario, ShortestPathTree[] trees, int station, SimIncident incident) {
+        ShortestPathTree tree = trees[station];
+        double km;
+        if (tree.reachable(incident.node)) {
+            km = straightKm(scenario.lats[station], scenario.lons[station], nodeLats[tree.root], nodeLons[tree.root])
+               + tree.dist[incident.node] / 1000.0
+               + straightKm(nodeLats[incident.node], nodeLons[incident.node], incident.lat, incident.lon);
+        } else {
+            km = straightKm(scenario.lats[station], scenario.lons[station], incident.lat, incident.lon) * 1.4;
+        }
+        return (long) (km / EtaService.AVERAGE_SPEED_KMH * 3600);
+    }
+
+    private static double straightKm(double lat1, double lon1, double lat2, double lon2) {
+        return Math.hypot(lat1 - lat2, lon1 - lon2) * 111;
+    }
+}
+
+// Headless incident source for load and soak testing. Arrivals are a
+// Poisson process, optionally shaped by a daily profile or periodic bursts
+// (thinned from the peak rate), and locations are spread along the road
+// network or clustered around hotspots. Every incident goes through
+// DispatchEngine.reportIncident, the same path as a map click.
+class LoadGenerator {
+    static final int SPATIAL_UNIFORM = 0, SPATIAL_HOTSPOT = 1;
+    static final int TEMPORAL_POISSON = 0, TEMPORAL_DIURNAL = 1, TEMPORAL_BURST = 2;
+    static final int HOTSPOTS = 6;
+    static final double HOTSPOT_SHARE = 0.7;
+    static final double HOTSPOT_SIGMA_DEG = 0.004;
+    static final long BURST_PERIOD_MILLIS = 10 * 60000L;
+    static final long BURST_LENGTH_MILLIS = 30000L;
+    static final double BURST_FACTOR = 8;
+
+    private final DispatchEngine engine;
+    private final List<RoadNetwork> roads;
+    private final double ratePerHour;
+    private final int spatial, temporal;
+    private final Random random;
+    private final double[] hotspotLats = new double[HOTSPOTS], hotspotLons = new double[HOTSPOTS];
+    private final double[] hotspotWeights = new double[HOTSPOTS];
+    private final AtomicLong emitted = new AtomicLong();
+    private volatile SoakMonitor monitor;
+    private volatile boolean running;
+    private Thread thread;
+
+    LoadGenerator(DispatchEngine engine, double ratePerHour, int spatial, int temporal, long seed) {
+        this.engine = engine;
+        this.roads = engine.getRoads();
+        this.ratePerHour = ratePerHour;
+        this.spatial = spatial;
+        this.temporal = temporal;
+        this.random = new Random(seed);
+
+        // Zipf-like weights so one or two hotspots dominate
+        double total = 0;
+        for (int i = 0; i < HOTSPOTS; i++) {
+            double[] point = pointOnRoad();
+            hotspotLats[i] = point[0];
+            hotspotLons[i] = point[1];
+            total += 1.0 / (i + 1);
+            hotspotWeights[i] = total;
+        }
+        for (int i = 0; i < HOTSPOTS; i++) hotspotWeights[i] /= total;
+    }
+
+    // Reads firebrigade.load.* properties; does nothing unless a rate is set
+    static LoadGenerator startIfConfigured(DispatchEngine engine) {
+        String rate = System.getProperty("firebrigade.load.rate");
+        if (rate == null) return null;
+        LoadGenerator generator = new LoadGenerator(engine, Double.parseDouble(rate),
+            parseSpatial(System.getProperty("firebrigade.load.spatial", "uniform")),
+            parseTemporal(System.getProperty("firebrigade.load.temporal", "poisson")),
+            Long.parseLong(System.getProperty("firebrigade.load.seed", "42")));
+        String hours = System.getProperty("firebrigade.soak.hours");
+        if (hours != null) {
+            SoakMonitor soak = new SoakMonitor(generator, System.getProperty("firebrigade.soak.csv"));
+            soak.start((long) (Double.parseDouble(hours) * 3600000));
+        }
+        generator.start();
+        return generator;
+    }
+
+    static int parseSpatial(String name) {
+        switch (name.toLowerCase()) {
+            case "uniform": return SPATIAL_UNIFORM;
+            case "hotspot": return SPATIAL_HOTSPOT;
+            default: throw new IllegalArgumentException("Unknown spatial distribution: " + name);
+        }
+    }
+
+    static int parseTemporal(String name) {
+        switch (name.toLowerCase()) {
+            case "poisson": return TEMPORAL_POISSON;
+            case "diurnal": return TEMPORAL_DIURNAL;
+            case "burst": return TEMPORAL_BURST;
+            default: throw new IllegalArgumentException("Unknown temporal distribution: " + name);
+        }
+    }
+
+    // Soak harness without the dashboard window:
+    //   java -Djava.awt.headless=true LoadGenerator <per-hour> <hours> [uniform|hotspot] [poisson|diurnal|burst]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: LoadGenerator <incidents-per-hour> <hours> [uniform|hotspot] [poisson|diurnal|burst]");
+            return;
+        }
+        SocketClient client = new SocketClient("127.0.0.1", 5000, null);
+        if (!client.connect()) {
+            Log.warn("LOAD", "Server not reachable, running without the backend");
+        }
+        DispatchEngine engine = DispatchEngine.start();
+        engine.setUpstream(client);
+
+        LoadGenerator generator = new LoadGenerator(engine, Double.parseDouble(args[0]),
+            parseSpatial(args.length > 2 ? args[2] : "uniform"),
+            parseTemporal(args.length > 3 ? args[3] : "poisson"), 42);
+        SoakMonitor soak = new SoakMonitor(generator, System.getProperty("firebrigade.soak.csv"));
+        soak.start((long) (Double.parseDouble(args[1]) * 3600000));
+        generator.start();
+        soak.awaitEnd();
+        client.disconnect();
+        System.exit(0);
+    }
+
+    synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "load-generator");
+        thread.setDaemon(true);
+        thread.start();
+        Log.info("LOAD", "Generating incidents", "perHour", Math.round(ratePerHour));
+    }
+
+    synchronized void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    void setMonitor(SoakMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    long emitted() {
+        return emitted.get();
+    }
+
+    // Open loop: arrivals keep their schedule even when intake falls behind,
+    // and latency is measured from the scheduled time, so a slow engine
+    // shows up as queueing instead of silently slowing the load down
+    private void run() {
+        double peak = ratePerHour * peakFactor() / 3600e9;
+        long next = System.nanoTime();
+        while (running) {
+            next += (long) (-Math.log(1 - random.nextDouble()) / peak);
+            long wait = next - System.nanoTime();
+            try {
+                if (wait > 0) Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (random.nextDouble() * peakFactor() > shape(System.currentTimeMillis())) continue;
+
+            double[] point = spatial == SPATIAL_HOTSPOT && random.nextDouble() < HOTSPOT_SHARE ? pointNearHotspot() : pointOnRoad();
+            double p = random.nextDouble();
+            int severity = p < 0.5 ? 1 : (p < 0.85 ? 2 : 3);
+            long scheduled = next;
+            engine.reportIncident(point[0], point[1], severity);
+            SoakMonitor m = monitor;
+            if (m != null) m.incidentHandled(System.nanoTime() - scheduled);
+            emitted.incrementAndGet();
+        }
+    }
+
+    private double peakFactor() {
+        switch (temporal) {
+            case TEMPORAL_DIURNAL: return 1.6;
+            case TEMPORAL_BURST: return BURST_FACTOR;
+            default: return 1;
+        }
+    }
+
+    // Rate multiplier at wall-clock time t: the daily profile peaks at 18:00
+    // and bottoms out at 06:00; bursts run for 30 s every 10 min
+    private double shape(long t) {
+        if (temporal == TEMPORAL_DIURNAL) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(t);
+            double hour = calendar.get(Calendar.HOUR_OF_DAY) + calendar.get(Calendar.MINUTE) / 60.0;
+            return 1 + 0.6 * Math.cos(2 * Math.PI * (hour - 18) / 24);
+        }
+        if (temporal == TEMPORAL_BURST) {
+            return t % BURST_PERIOD_MILLIS < BURST_LENGTH_MILLIS ? BURST_FACTOR : 1;
+        }
+        return 1;
+    }
+
+    private double[] pointOnRoad() {
+        double[] g = roads.get(random.nextInt(roads.size())).geometry;
+        int i = random.nextInt(g.length / 2 - 1) * 2;
+        double f = random.nextDouble();
+        return new double[]{g[i] + (g[i + 2] - g[i]) * f, g[i + 1] + (g[i + 3] - g[i + 1]) * f};
+    }
+
+    private double[] pointNearHotspot() {
+        double pick = random.nextDouble();
+        int h = 0;
+        while (h < HOTSPOTS - 1 && hotspotWeights[h] < pick) h++;
+        return new double[]{hotspotLats[h] + random.nextGaussian() * HOTSPOT_SIGMA_DEG,
+                            hotspotLons[h] + random.nextGaussian() * HOTSPOT_SIGMA_DEG};
+    }
+}
+
+// Health recorder for long load runs. Once a minute it logs throughput,
+// incident handling latency (scheduled arrival to dispatched), live
+// heap after the last GC and EDT stall time seen by a 100 ms probe, and
+// optionally appends the same figures to a CSV file.
+class SoakMonitor {
+    static final long REPORT_MILLIS = 60000;
+    static final long PROBE_MILLIS = 100;
+    static final long STALL_MILLIS = 50;
+
+    private final LoadGenerator generator;
+    private final String csvPath;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "soak-monitor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    // Latencies in microseconds; the interval sketch is cleared every report
+    private final QuantileSketch totalLatency = new QuantileSketch();
+    private final QuantileSketch intervalLatency = new QuantileSketch();
+    private final AtomicLong stallMillis = new AtomicLong();
+    private volatile long maxStallMillis;
+    private long startedAt, lastReportAt, lastEmitted, baselineHeap = -1;
+
+    SoakMonitor(LoadGenerator generator, String csvPath) {
+        this.generator = generator;
+        this.csvPath = csvPath;
+        generator.setMonitor(this);
+    }
+
+    void start(long durationMillis) {
+        startedAt = lastReportAt = System.currentTimeMillis();
+        if (csvPath != null) {
+            writeCsv("elapsed_s,incidents,per_second,p50_ms,p99_ms,max_ms,heap_mb,edt_stall_ms,edt_max_stall_ms");
+        }
+        scheduler.scheduleAtFixedRate(this::probeEdt, PROBE_MILLIS, PROBE_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::report, REPORT_MILLIS, REPORT_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.schedule(this::finish, durationMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void awaitEnd() throws InterruptedException {
+        finished.await();
+    }
+
+    synchronized void incidentHandled(long nanos) {
+        totalLatency.record(nanos / 1000);
+        intervalLatency.record(nanos / 1000);
+    }
+
+    private void probeEdt() {
+        long posted = System.nanoTime();
+        SwingUtilities.invokeLater(() -> {
+            long lag = (System.nanoTime() - posted) / 1000000;
+            if (lag >= STALL_MILLIS) {
+                stallMillis.addAndGet(lag);
+                maxStallMillis = Math.max(maxStallMillis, lag);
+            }
+        });
+    }
+
+    private void report() {
+        long now = System.currentTimeMillis();
+        long emitted = generator.emitted();
+        double perSecond = (emitted - lastEmitted) * 1000.0 / Math.max(1, now - lastReportAt);
+        long heap = liveHeapBytes();
+        if (baselineHeap < 0) baselineHeap = heap;
+        double hours = (now - startedAt) / 3600000.0;
+        double growthPerHour = hours > 0 ? (heap - baselineHeap) / hours : 0;
+
+        long p50, p99, max;
+        synchronized (this) {
+            p50 = intervalLatency.quantile(0.5);
+            p99 = intervalLatency.quantile(0.99);
+            max = intervalLatency.max();
+            intervalLatency.clear();
+        }
+        Log.info("SOAK", String.format(
+            "%s incidents=%d (%.1f/s) latency p50=%.2fms p99=%.2fms max=%.2fms | heap %.1fMB (%+.1fMB/h) | EDT stalls %dms (max %dms)",
+            elapsed(now), emitted, perSecond, p50 / 1000.0, p99 / 1000.0, max / 1000.0,
+            heap / 1048576.0, growthPerHour / 1048576.0, stallMillis.get(), maxStallMillis));
+        if (csvPath != null) {
+            writeCsv(String.format("%d,%d,%.2f,%.3f,%.3f,%.3f,%.1f,%d,%d", (now - startedAt) / 1000, emitted, perSecond,
+                p50 / 1000.0, p99 / 1000.0, max / 1000.0, heap / 1048576.0, stallMillis.get(), maxStallMillis));
+        }
+        lastReportAt = now;
+        lastEmitted = emitted;
+    }
+
+    private void finish() {
+        generator.stop();
+        report();
+        synchronized (this) {
+            Log.info("SOAK", String.format("Finished after %s: %d incidents, latency p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                elapsed(System.currentTimeMillis()), generator.emitted(), totalLatency.quantile(0.5) / 1000.0,
+                totalLatency.quantile(0.9) / 1000.0, totalLatency.quantile(0.99) / 1000.0, totalLatency.max() / 1000.0));
+        }
+        scheduler.shutdown();
+        finished.countDown();
+    }
+
+    // Heap still in use after the most recent collection, which tracks
+    // leaks far better than the raw used figure; falls back to that before
+    // the first GC
+    private static long liveHeapBytes() {
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (usage != null) live += usage.getUsed();
+        }
+        return live > 0 ? live : ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private String elapsed(long now) {
+        long seconds = (now - startedAt) / 1000;
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private void writeCsv(String line) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(csvPath, true))) {
+            out.println(line);
+        } catch (IOException e) {
+            Log.warn("SOAK", "Could not write report", "file", csvPath, "reason", e.getMessage());
+        }
+    }
+}
+
+// Nearest-vertex lookups over a uniform grid sized for about two nodes per
+// cell. Search spreads out ring by ring from the query's cell and stops
+// once no unvisited ring can hold anything closer.
+class NodeIndex {
+    private final double[] lats, lons;
+    private final int cols, rows;
+    private final double minLat, minLon, cellLat, cellLon;
+    private final int[] cellStart, cellNodes;
+
+    NodeIndex(double[] lats, double[] lons) {
+        this.lats = lats;
+        this.lons = lons;
+        double lat0 = Double.MAX_VALUE, lon0 = Double.MAX_VALUE, lat1 = -Double.MAX_VALUE, lon1 = -Double.MAX_VALUE;
+        for (int i = 0; i < lats.length; i++) {
+            lat0 = Math.min(lat0, lats[i]);
+            lat1 = Math.max(lat1, lats[i]);
+            lon0 = Math.min(lon0, lons[i]);
+            lon1 = Math.max(lon1, lons[i]);
+        }
+        int side = Math.max(1, (int) Math.ceil(Math.sqrt(lats.length / 2.0)));
+        cols = rows = side;
+        minLat = lats.length > 0 ? lat0 : 0;
+        minLon = lats.length > 0 ? lon0 : 0;
+        cellLat = Math.max(1e-9, (lat1 - lat0) / side);
+        cellLon = Math.max(1e-9, (lon1 - lon0) / side);
+
+        cellStart = new int[cols * rows + 1];
+        for (int i = 0; i < lats.length; i++) cellStart[cellOf(lats[i], lons[i]) + 1]++;
+        for (int c = 0; c < cols * rows; c++) cellStart[c + 1] += cellStart[c];
+        cellNodes = new int[lats.length];
+        int[] fill = Arrays.copyOf(cellStart, cols * rows);
+        for (int i = 0; i < lats.length; i++) cellNodes[fill[cellOf(lats[i], lons[i])]++] = i;
+    }
+
+    private int row(double lat) {
+        return Math.max(0, Math.min(rows - 1, (int) ((lat - minLat) / cellLat)));
+    }
+
+    private int col(double lon) {
+        return Math.max(0, Math.min(cols - 1, (int) ((lon - minLon) / cellLon)));
+    }
+
+    private int cellOf(double lat, double lon) {
+        return row(lat) * cols + col(lon);
+    }
+
+    int nearest(double lat, double lon) {
+        int r0 = row(lat), c0 = col(lon);
+        int nearest = 0;
+        double best = Double.MAX_VALUE;
+        double ringStep = Math.min(cellLat, cellLon);
+        for (int ring = 0; ring <= Math.max(rows, cols); ring++) {
+            if (best < (ring - 1) * ringStep) break;
+            for (int r = r0 - ring; r <= r0 + ring; r++) {
+                if (r < 0 || r >= rows) continue;
+                for (int c = c0 - ring; c <= c0 + ring; c++) {
+                    if (c < 0 || c >= cols) continue;
+                    if (Math.abs(r - r0) != ring && Math.abs(c - c0) != ring) continue;
+                    int cell = r * cols + c;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        int i = cellNodes[k];
+                        double d = Math.hypot(lats[i] - lat, lons[i] - lon);
+                        if (d < best) {
+                            best = d;
+                            nearest = i;
+                        }
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+}
+
+// Stations, roads and graph vertices that make up the map
+class RoadMap {
+    final ArrayList<FireStation> stations = new ArrayList<>();
+    final ArrayList<RoadNetwork> roads = new ArrayList<>();
+    double[] nodeLats = new double[0];
+    double[] nodeLons = new double[0];
+
+    // Uses <source>.fbg when it is newer than the source, otherwise imports
+    // the source and rewrites the cache
+    static RoadMap load(File source) throws IOException {
+        File cache = new File(source.getPath() + ".fbg");
+        if (cache.exists() && cache.lastModified() >= source.lastModified()) {
+            try {
+                return MapCache.read(cache);
+            } catch (IOException e) {
+                Log.warn("MAP", "Ignoring unreadable cache", "file", cache.getPath(), "reason", e.getMessage());
+            }
+        }
+        RoadMap map = GeoJsonImporter.importFile(source);
+        try {
+            MapCache.write(map, cache);
+        } catch (IOException e) {
+            Log.warn("MAP", "Could not write cache", "file", cache.getPath(), "reason", e.getMessage());
+        }
+        return map;
+    }
+}
+
+// Builds a RoadMap from a GeoJSON FeatureCollection such as an OSM
+// extract converted with osmium or ogr2ogr. Fire stations are Point
+// features tagged amenity=fire_station; roads are LineString or
+// MultiLineString features with a highway tag. The file is streamed
+// twice, one feature at a time: the first pass counts how many roads use
+// each vertex, the second splits roads at shared vertices (junctions) so
+// they become graph nodes.
+class GeoJsonImporter {
+    private final HashMap<Long, Integer> vertexUses = new HashMap<>();
+    private final HashMap<Long, Integer> nodeIds = new HashMap<>();
+    private final ArrayList<double[]> nodes = new ArrayList<>();
+    private final RoadMap map = new RoadMap();
+
+    static RoadMap importFile(File file) throws IOException {
+        GeoJsonImporter importer = new GeoJsonImporter();
+        JsonPullParser.forEachFeature(file, importer::countVertices);
+        JsonPullParser.forEachFeature(file, importer::addFeature);
+        return importer.finish();
+    }
+
+    // Vertices are matched at 1e-6 degree (about 10 cm) resolution
+    private static long key(double lat, double lon) {
+        return (Math.round(lat * 1e6) << 32) ^ (Math.round(lon * 1e6) & 0xFFFFFFFFL);
+    }
+
+    private void countVertices(Map<String, Object> feature) {
+        if (!isRoad(feature)) return;
+        for (double[] line : lines(feature)) {
+            for (int i = 0; i < line.length; i += 2) {
+                // Endpoints always become nodes
+                int weight = (i == 0 || i == line.length - 2) ? 2 : 1;
+                vertexUses.merge(key(line[i], line[i + 1]), weight, Integer::sum);
+            }
+        }
+    }
+
+    private void addFeature(Map<String, Object> feature) {
+        Map<String, Object> props = properties(feature);
+        Map<String, Object> geometry = child(feature, "geometry");
+        if ("fire_station".equals(props.get("amenity")) && "Point".equals(geometry.get("type"))) {
+            List<?> c = (List<?>) geometry.get("coordinates");
+            double lon = ((Number) c.get(0)).doubleValue();
+            double lat = ((Number) c.get(1)).doubleValue();
+            int id = map.stations.size();
+            Object name = props.get("name");
+            Object units = props.get("units");
+            map.stations.add(new FireStation(id, name != null ? name.toString() : "Station " + id, lat, lon,
+                units instanceof Number ? ((Number) units).intValue() : 3));
+        } else if (isRoad(feature)) {
+            Object name = props.get("name");
+            String roadName = name != null ? name.toString() : "Unnamed Road";
+            int width = roadWidth(String.valueOf(props.get("highway")));
+            for (double[] line : lines(feature)) {
+                int start = 0;
+                for (int i = 2; i < line.length; i += 2) {
+                    boolean last = i == line.length - 2;
+                    if (last || vertexUses.getOrDefault(key(line[i], line[i + 1]), 0) > 1) {
+                        addRoad(Arrays.copyOfRange(line, start, i + 2), roadName, width);
+                        start = i;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addRoad(double[] geometry, String name, int width) {
+        int from = node(geometry[0], geometry[1]);
+        int to = node(geometry[geometry.length - 2], geometry[geometry.length - 1]);
+        if (from == to) return;
+        int meters = (int) Math.max(1, Math.round(lengthKm(geometry) * 1000));
+        map.roads.add(new RoadNetwork(from, to, name, geometry, meters, width));
+    }
+
+    private int node(double lat, double lon) {
+        return nodeIds.computeIfAbsent(key(lat, lon), k -> {
+            nodes.add(new double[]{lat, lon});
+            return nodes.size() - 1;
+        });
+    }
+
+    private RoadMap finish() throws IOException {
+        if (nodes.isEmpty() || map.stations.isEmpty()) {
+            throw new IOException("extract has no roads or no fire stations");
+        }
+        map.nodeLats = new double[nodes.size()];
+        map.nodeLons = new double[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            map.nodeLats[i] = nodes.get(i)[0];
+            map.nodeLons[i] = nodes.get(i)[1];
+        }
+        NodeIndex index = new NodeIndex(map.nodeLats, map.nodeLons);
+        for (FireStation station : map.stations) {
+            station.node = index.nearest(station.latitude, station.longitude);
+        }
+        return map;
+    }
+
+    static double lengthKm(double[] geometry) {
+        double km = 0;
+        for (int i = 2; i < geometry.length; i += 2) {
+            double dLat = geometry[i] - geometry[i - 2];
+            double dLon = (geometry[i + 1] - geometry[i - 1]) * Math.cos(Math.toRadians(geometry[i]));
+            km += Math.hypot(dLat, dLon) * 111.32;
+        }
+        return km;
+    }
+
+    private static int roadWidth(String highway) {
+        switch (highway) {
+            case "motorway": case "trunk": return 22;
+            case "primary": return 18;
+            case "secondary": return 14;
+            default: return 10;
+        }
+    }
+
+    private static boolean isRoad(Map<String, Object> feature) {
+        if (!properties(feature).containsKey("highway")) return false;
+        Object type = child(feature, "geometry").get("type");
+        return "LineString".equals(type) || "MultiLineString".equals(type);
+    }
+
+    // GeoJSON positions are [lon, lat]; lines come back packed as lat,lon
+    private static List<double[]> lines(Map<String, Object> feature) {
+        Map<String, Object> geometry = child(feature, "geometry");
+        List<?> coords = (List<?>) geometry.get("coordinates");
+        List<double[]> result = new ArrayList<>();
+        if ("LineString".equals(geometry.get("type"))) {
+            result.add(packLine(coords));
+        } else {
+            for (Object line : coords) result.add(packLine((List<?>) line));
+        }
+        result.removeIf(line -> line.length < 4);
+        return result;
+    }
+
+    static double[] packLine(List<?> positions) {
+        double[] line = new double[positions.size() * 2];
+        for (int i = 0; i < positions.size(); i++) {
+            List<?> pos = (List<?>) positions.get(i);
+            line[i * 2] = ((Number) pos.get(1)).doubleValue();
+            line[i * 2 + 1] = ((Number) pos.get(0)).doubleValue();
+        }
+        return line;
+    }
+
+    private static Map<String, Object> properties(Map<String, Object> feature) {
+        return child(feature, "properties");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> child(Map<String, Object> parent, String key) {
+        Object value = parent.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : new HashMap<>();
+    }
+}
+
+// Minimal streaming JSON reader. It walks a FeatureCollection token by
+// token and only materialises one feature at a time, so memory stays
+// bounded by the largest feature rather than the whole file.
+class JsonPullParser {
+    private final Reader in;
+    private int peeked = -2;
+
+    JsonPullParser(Reader in) {
+        this.in = in;
+    }
+
+    static void forEachFeature(File file, Consumer<Map<String, Object>> handler) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            JsonPullParser parser = new JsonPullParser(reader);
+            parser.expect('{');
+            while (parser.peekSkippingSeparators() != '}') {
+                String key = parser.readString();
+                parser.expect(':');
+                if (!key.equals("features")) {
+                    parser.readValue();
+                    continue;
+                }
+                parser.expect('[');
+                while (parser.peekSkippingSeparators() != ']') {
+                    Object feature = parser.readValue();
+                    if (feature instanceof Map) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> map = (Map<String, Object>) feature;
+                        handler.accept(map);
+                    }
+                }
+                parser.expect(']');
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (peeked != -2) {
+            int c = peeked;
+            peeked = -2;
+            return c;
+        }
+        return in.read();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) peeked = in.read();
+        return peeked;
+    }
+
+    private int peekSkippingSeparators() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && (Character.isWhitespace(c) || c == ',')) read();
+        if (c == -1) throw new EOFException("unexpected end of JSON");
+        return c;
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peekSkippingSeparators();
+        if (c != expected) throw new IOException("expected '" + expected + "' but found '" + (char) c + "'");
+        read();
+    }
+
+    Object readValue() throws IOException {
+        int c = peekSkippingSeparators();
+        switch (c) {
+            case '{': {
+                read();
+                HashMap<String, Object> object = new HashMap<>();
+                while (peekSkippingSeparators() != '}') {
+                    String key = readString();
+                    expect(':');
+                    object.put(key, readValue());
+                }
+                read();
+                return object;
+            }
+            case '[': {
+                read();
+                ArrayList<Object> array = new ArrayList<>();
+                while (peekSkippingSeparators() != ']') {
+                    array.add(readValue());
+                }
+                read();
+                return array;
+            }
+            case '"':
+                return readString();
+            default:
+                return readLiteral();
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = read()) != '"') {
+            if (c == -1) throw new EOFException("unterminated string");
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u': {
+                        char[] hex = new char[4];
+                        for (int i = 0; i < 4; i++) hex[i] = (char) read();
+                        sb.append((char) Integer.parseInt(new String(hex), 16));
+                        break;
+                    }
+                    default: sb.append((char) c);
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private Object readLiteral() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+            sb.append((char) read());
+        }
+        String literal = sb.toString();
+        switch (literal) {
+            case "true": return Boolean.TRUE;
+            case "false": return Boolean.FALSE;
+            case "null": return null;
+            default:
+                try {
+                    return Double.parseDouble(literal);
+                } catch (NumberFormatException e) {
+                    throw new IOException("bad JSON literal: " + literal);
+                }
+        }
+    }
+}
+
+// Compact binary form of a RoadMap, read back through a memory-mapped
+// buffer. Coordinates are stored as int micro-degrees.
+//   header   "FBG2", node count, station count, road count
+//   nodes    lat, lon
+//   stations node, units, lat, lon, name
+//   roads    from, to, metres, width, name index, vertex count, lat/lon...
+//   names    count, then UTF-8 strings (road names are shared)
+// Strings are an int byte length followed by standard UTF-8.
+class MapCache {
+    private static final int MAGIC = 0x46424732;
+
+    static void write(RoadMap map, File file) throws IOException {
+        HashMap<String, Integer> nameIndex = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        for (RoadNetwork road : map.roads) {
+            nameIndex.computeIfAbsent(road.name, n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(map.nodeLats.length);
+            out.writeInt(map.stations.size());
+            out.writeInt(map.roads.size());
+            for (int i = 0; i < map.nodeLats.length; i++) {
+                out.writeInt(micro(map.nodeLats[i]));
+                out.writeInt(micro(map.nodeLons[i]));
+            }
+            for (FireStation s : map.stations) {
+                out.writeInt(s.node);
+                out.writeInt(s.units);
+                out.writeInt(micro(s.latitude));
+                out.writeInt(micro(s.longitude));
+                writeString(out, s.name);
+            }
+            for (RoadNetwork road : map.roads) {
+                out.writeInt(road.from);
+                out.writeInt(road.to);
+                out.writeInt(road.distance);
+                out.writeInt(road.width);
+                out.writeInt(nameIndex.get(road.name));
+                out.writeInt(road.geometry.length / 2);
+                for (double v : road.geometry) out.writeInt(micro(v));
+            }
+            out.writeInt(names.size());
+            for (String name : names) writeString(out, name);
+        }
+    }
+
+    static RoadMap read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC) throw new IOException("not a map cache file");
+            RoadMap map = new RoadMap();
+            int nodeCount = buf.getInt(), stationCount = buf.getInt(), roadCount = buf.getInt();
+
+            map.nodeLats = new double[nodeCount];
+            map.nodeLons = new double[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                map.nodeLats[i] = buf.getInt() / 1e6;
+                map.nodeLons[i] = buf.getInt() / 1e6;
+            }
+            for (int i = 0; i < stationCount; i++) {
+                int node = buf.getInt(), units = buf.getInt();
+                double lat = buf.getInt() / 1e6, lon = buf.getInt() / 1e6;
+                FireStation station = new FireStation(i, readString(buf), lat, lon, units);
+                station.node = node;
+                map.stations.add(station);
+            }
+            int[] nameRefs = new int[roadCount];
+            for (int i = 0; i < roadCount; i++) {
+                int from = buf.getInt(), to = buf.getInt(), meters = buf.getInt(), width = buf.getInt();
+                nameRefs[i] = buf.getInt();
+                double[] geometry = new double[buf.getInt() * 2];
+                for (int j = 0; j < geometry.length; j++) geometry[j] = buf.getInt() / 1e6;
+                map.roads.add(new RoadNetwork(from, to, null, geometry, meters, width));
+            }
+            String[] names = new String[buf.getInt()];
+            for (int i = 0; i < names.length; i++) names[i] = readString(buf);
+            for (int i = 0; i < roadCount; i++) map.roads.get(i).name = names[nameRefs[i]];
+            return map;
+        }
+    }
+
+    private static int micro(double degrees) {
+        return (int) Math.round(degrees * 1e6);
+    }
+
+    // DataOutputStream.writeUTF would write modified UTF-8, which differs
+    // for NUL and characters outside the BMP
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Offline reverse geocoder: the sector (G-6, F-7, Blue Area) and the
+// nearest named road for a position. Sector outlines sit in a packed
+// R-tree over their bounding boxes and are confirmed point-in-polygon;
+// road geometry is cut into segments in a second R-tree searched
+// best-first. Everything is held in planar metres around the map centre,
+// in the same buffers as the .fbr file the index is memory-mapped from:
+//   header   "FBR1", format version, sector source path and modification
+//            time, origin lat, lon, sector, vertex, segment, name counts
+//   sectors  first vertex per sector (+1 end), name index, x/y vertices
+//   segments x1, y1, x2, y2, name index
+//   trees    sector tree, segment tree (see PackedRTree)
+//   names    strings shared by sectors and roads, as in MapCache
+// Incidents are located once when they are reported and keep the result.
+class ReverseGeocoder {
+    private static final int MAGIC = 0x46425231;
+    private static final int VERSION = 2;
+    private static final double METRES_PER_DEGREE = 111320;
+
+    // Sector file the outlines came from ("" for the built-in ones)
+    final String sectorSource;
+    final long sectorModified;
+    private final double originLat, originLon, lonScale;
+    private final IntBuffer sectorStart, sectorName, segmentName;
+    private final FloatBuffer sectorVertices, segments;
+    private final PackedRTree sectorTree, segmentTree;
+    private final String[] names;
+    private final double[] sectorArea;
+
+    ReverseGeocoder(ByteBuffer buf) throws IOException {
+        if (buf.getInt() != MAGIC) throw new IOException("not a geocoder index");
+        int version = buf.getInt();
+        if (version != VERSION) throw new IOException("geocoder index version " + version + ", expected " + VERSION);
+        sectorSource = MapCache.readString(buf);
+        sectorModified = buf.getLong();
+        originLat = buf.getDouble();
+        originLon = buf.getDouble();
+        lonScale = Math.cos(Math.toRadians(originLat));
+        int sectorCount = buf.getInt(), vertexCount = buf.getInt(), segmentCount = buf.getInt(), nameCount = buf.getInt();
+        sectorStart = ints(buf, sectorCount + 1);
+        sectorName = ints(buf, sectorCount);
+        sectorVertices = floats(buf, vertexCount * 2);
+        segments = floats(buf, segmentCount * 4);
+        segmentName = ints(buf, segmentCount);
+        sectorTree = PackedRTree.read(buf);
+        segmentTree = PackedRTree.read(buf);
+        names = new String[nameCount];
+        for (int i = 0; i < nameCount; i++) names[i] = MapCache.readString(buf);
+        // Where sectors overlap (Blue Area runs along the F/G boundary) the
+        // smallest outline is the more specific answer
+        sectorArea = new double[sectorCount];
+        for (int s = 0; s < sectorCount; s++) {
+            double area = 0;
+            for (int i = sectorStart.get(s), j = sectorStart.get(s + 1) - 1; i < sectorStart.get(s + 1); j = i++) {
+                area += sectorVertices.get(j * 2) * sectorVertices.get(i * 2 + 1) - sectorVertices.get(i * 2) * sectorVertices.get(j * 2 + 1);
+            }
+            sectorArea[s] = Math.abs(area) / 2;
+        }
+    }
+
+    // Index for a map: <map>.fbr when it is newer than the map and was built
+    // from the same sector file at the same modification time, otherwise
+    // built from the roads and rewritten. Sector outlines come from
+    // -Dfirebrigade.sectors (Polygon features with a name) or the built-in
+    // central sectors.
+    static ReverseGeocoder open(String mapFile, List<RoadNetwork> roads) {
+        String sectorFile = System.getProperty("firebrigade.sectors");
+        String source = sectorFile != null ? new File(sectorFile).getAbsolutePath() : "";
+        long modified = sectorFile != null ? new File(sectorFile).lastModified() : 0;
+        File cache = mapFile != null ? new File(mapFile + ".fbr") : null;
+        if (cache != null && cache.exists() && cache.lastModified() >= new File(mapFile).lastModified()) {
+            try {
+                ReverseGeocoder cached = read(cache);
+                if (cached.sectorSource.equals(source) && cached.sectorModified == modified) return cached;
+                Log.info("GEOCODE", "Sector source changed, rebuilding index", "file", cache.getPath());
+            } catch (IOException e) {
+                Log.warn("GEOCODE", "Ignoring unreadable index", "file", cache.getPath(), "reason", e.getMessage());
+            }
+        }
+        List<String> sectorNames = new ArrayList<>();
+        List<double[]> outlines = new ArrayList<>();
+        if (sectorFile != null) {
+            try {
+                loadSectors(new File(sectorFile), sectorNames, outlines);
+            } catch (IOException e) {
+                Log.error("GEOCODE", "Could not load sectors", "file", sectorFile, "reason", e.getMessage());
+                sectorNames.clear();
+                outlines.clear();
+            }
+        }
+        if (outlines.isEmpty()) {
+            // Recorded as built-in, so the file is tried again next start
+            source = "";
+            modified = 0;
+            builtInSectors(sectorNames, outlines);
+        }
+
+        byte[] index = build(source, modified, sectorNames, outlines, roads);
+        if (cache != null) {
+            try (OutputStream out = new FileOutputStream(cache)) {
+                out.write(index);
+            } catch (IOException e) {
+                Log.warn("GEOCODE", "Could not write index", "file", cache.getPath(), "reason", e.getMessage());
+            }
+        }
+        try {
+            return new ReverseGeocoder(ByteBuffer.wrap(index));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ReverseGeocoder read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            // The mapping stays valid after the channel closes
+            return new ReverseGeocoder(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    GeoLocation locate(double lat, double lon) {
+        float x = (float) ((lon - originLon) * lonScale * METRES_PER_DEGREE);
+        float y = (float) ((lat - originLat) * METRES_PER_DEGREE);
+
+        int[] sector = {-1};
+        sectorTree.search(x, y, s -> {
+            if (contains(s, x, y) && (sector[0] < 0 || sectorArea[s] < sectorArea[sector[0]])) sector[0] = s;
+        });
+        int segment = segmentTree.nearest(x, y, i -> segmentDistance(i, x, y));
+        return new GeoLocation(
+            sector[0] < 0 ? null : names[sectorName.get(sector[0])],
+            segment < 0 ? null : names[segmentName.get(segment)],
+            segment < 0 ? -1 : (float) Math.sqrt(segmentDistance(segment, x, y)));
+    }
+
+    // Even-odd ray cast along +x
+    private boolean contains(int sector, float x, float y) {
+        boolean inside = false;
+        int start = sectorStart.get(sector), end = sectorStart.get(sector + 1);
+        for (int i = start, j = end - 1; i < end; j = i++) {
+            float xi = sectorVertices.get(i * 2), yi = sectorVertices.get(i * 2 + 1);
+            float xj = sectorVertices.get(j * 2), yj = sectorVertices.get(j * 2 + 1);
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) inside = !inside;
+        }
+        return inside;
+    }
+
+    // Squared distance in square metres
+    private double segmentDistance(int i, float x, float y) {
+        double x1 = segments.get(i * 4), y1 = segments.get(i * 4 + 1);
+        double dx = segments.get(i * 4 + 2) - x1, dy = segments.get(i * 4 + 3) - y1;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / len2));
+        double ex = x1 + t * dx - x, ey = y1 + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+
+    // Outlines are packed lat,lon like road geometry; unnamed roads are
+    // left out since a dispatcher can't use them
+    static byte[] build(String sectorSource, long sectorModified, List<String> sectorNames,
+                        List<double[]> outlines, List<RoadNetwork> roads) {
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        for (RoadNetwork road : roads) {
+            for (int i = 0; i < road.geometry.length; i += 2) {
+                minLat = Math.min(minLat, road.geometry[i]);
+                maxLat = Math.max(maxLat, road.geometry[i]);
+                minLon = Math.min(minLon, road.geometry[i + 1]);
+                maxLon = Math.max(maxLon, road.geometry[i + 1]);
+            }
+        }
+        double originLat = roads.isEmpty() ? 0 : (minLat + maxLat) / 2;
+        double originLon = roads.isEmpty() ? 0 : (minLon + maxLon) / 2;
+        double lonScale = Math.cos(Math.toRadians(originLat)) * METRES_PER_DEGREE;
+
+        HashMap<String, Integer> nameIndex = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        Function<String, Integer> intern = n -> nameIndex.computeIfAbsent(n, k -> {
+            names.add(k);
+            return names.size() - 1;
+        });
+
+        int vertexCount = 0;
+        for (double[] outline : outlines) vertexCount += outline.length / 2;
+        int[] start = new int[outlines.size() + 1];
+        int[] sectorNameRefs = new int[outlines.size()];
+        float[] vertices = new float[vertexCount * 2];
+        float[] sectorBoxes = new float[outlines.size() * 4];
+        for (int s = 0, v = 0; s < outlines.size(); s++) {
+            double[] outline = outlines.get(s);
+            start[s] = v / 2;
+            sectorNameRefs[s] = intern.apply(sectorNames.get(s));
+            float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+            for (int i = 0; i < outline.length; i += 2) {
+                float x = (float) ((outline[i + 1] - originLon) * lonScale);
+                float y = (float) ((outline[i] - originLat) * METRES_PER_DEGREE);
+                vertices[v++] = x;
+                vertices[v++] = y;
+                x0 = Math.min(x0, x); x1 = Math.max(x1, x);
+                y0 = Math.min(y0, y); y1 = Math.max(y1, y);
+            }
+            sectorBoxes[s * 4] = x0; sectorBoxes[s * 4 + 1] = y0;
+            sectorBoxes[s * 4 + 2] = x1; sectorBoxes[s * 4 + 3] = y1;
+            start[s + 1] = v / 2;
+        }
+
+        int segmentCount = 0;
+        for (RoadNetwork road : roads) {
+            if (road.name != null && !road.name.equals("Unnamed Road")) segmentCount += road.geometry.length / 2 - 1;
+        }
+        float[] segs = new float[segmentCount * 4];
+        float[] segmentBoxes = new float[segmentCount * 4];
+        int[] segmentNameRefs = new int[segmentCount];
+        int n = 0;
+        for (RoadNetwork road : roads) {
+            if (road.name == null || road.name.equals("Unnamed Road")) continue;
+            int ref = intern.apply(road.name);
+            double[] g = road.geometry;
+            for (int i = 2; i < g.length; i += 2, n++) {
+                float xa = (float) ((g[i - 1] - originLon) * lonScale), ya = (float) ((g[i - 2] - originLat) * METRES_PER_DEGREE);
+                float xb = (float) ((g[i + 1] - originLon) * lonScale), yb = (float) ((g[i] - originLat) * METRES_PER_DEGREE);
+                segs[n * 4] = xa; segs[n * 4 + 1] = ya; segs[n * 4 + 2] = xb; segs[n * 4 + 3] = yb;
+                segmentBoxes[n * 4] = Math.min(xa, xb); segmentBoxes[n * 4 + 1] = Math.min(ya, yb);
+                segmentBoxes[n * 4 + 2] = Math.max(xa, xb); segmentBoxes[n * 4 + 3] = Math.max(ya, yb);
+                segmentNameRefs[n] = ref;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            MapCache.writeString(out, sectorSource);
+            out.writeLong(sectorModified);
+            out.writeDouble(originLat);
+            out.writeDouble(originLon);
+            out.writeInt(outlines.size());
+            out.writeInt(vertexCount);
+            out.writeInt(segmentCount);
+            out.writeInt(names.size());
+            for (int v : start) out.writeInt(v);
+            for (int v : sectorNameRefs) out.writeInt(v);
+            for (float v : vertices) out.writeFloat(v);
+            for (float v : segs) out.writeFloat(v);
+            for (int v : segmentNameRefs) out.writeInt(v);
+            PackedRTree.write(sectorBoxes, out);
+            PackedRTree.write(segmentBoxes, out);
+            for (String name : names) MapCache.writeString(out, name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Polygon and MultiPolygon features; only outer rings are used
+    static void loadSectors(File file, List<String> sectorNames, List<double[]> outlines) throws IOException {
+        JsonPullParser.forEachFeature(file, feature -> {
+            Object properties = feature.get("properties");
+            Object geometry = feature.get("geometry");
+            if (!(properties instanceof Map) || !(geometry instanceof Map)) return;
+            Object name = ((Map<?, ?>) properties).get("name");
+            Object type = ((Map<?, ?>) geometry).get("type");
+            List<?> coords = (List<?>) ((Map<?, ?>) geometry).get("coordinates");
+            if (name == null || coords == null) return;
+            if ("Polygon".equals(type)) {
+                sectorNames.add(name.toString());
+                outlines.add(GeoJsonImporter.packLine((List<?>) coords.get(0)));
+            } else if ("MultiPolygon".equals(type)) {
+                for (Object polygon : coords) {
+                    sectorNames.add(name.toString());
+                    outlines.add(GeoJsonImporter.packLine((List<?>) ((List<?>) polygon).get(0)));
+                }
+            }
+        });
+        Log.info("GEOCODE", "Loaded sectors", "file", file.getPath(), "sectors", outlines.size());
+    }
+
+    // Approximate outlines of the central sectors. The master plan lays
+    // them out as a tilted grid of roughly 2 x 2.4 km blocks, lettered
+    // north to south (E to I) and numbered east to west (5 to 11), with
+    // Blue Area as a strip along the F/G boundary from F-6 to F-7.
+    static void builtInSectors(List<String> sectorNames, List<double[]> outlines) {
+        for (char letter = 'E'; letter <= 'I'; letter++) {
+            for (int number = 5; number <= 11; number++) {
+                sectorNames.add(letter + "-" + number);
+                outlines.add(gridCell(number - 6 - 0.5, number - 6 + 0.5, letter - 'F' - 0.5, letter - 'F' + 0.5));
+            }
+        }
+        sectorNames.add("Blue Area");
+        outlines.add(gridCell(-0.5, 1.5, 0.2, 0.55));
+    }
+
+    // Corners of a block in sector-grid units around the centre of F-6
+    private static double[] gridCell(double col0, double col1, double row0, double row1) {
+        double[] cols = {col0, col1, col1, col0}, rows = {row0, row0, row1, row1};
+        double[] outline = new double[8];
+        for (int i = 0; i < 4; i++) {
+            outline[i * 2] = 33.728 - 0.008 * cols[i] - 0.015 * rows[i];
+            outline[i * 2 + 1] = 73.076 - 0.024 * cols[i] + 0.012 * rows[i];
+        }
+        return outline;
+    }
+
+    private static IntBuffer ints(ByteBuffer buf, int count) {
+        ByteBuffer slice = buf.slice();
+        slice.limit(count * 4);
+        buf.position(buf.position() + count * 4);
+        return slice.asIntBuffer();
+    }
+
+    private static FloatBuffer floats(ByteBuffer buf, int count) {
+        ByteBuffer slice = buf.slice();
+        slice.limit(count * 4);
+        buf.position(buf.position() + count * 4);
+        return slice.asFloatBuffer();
+    }
+}
+
+// What the reverse geocoder knows about a position; sector and road are
+// null outside every sector or with no named road on the map
+class GeoLocation {
+    final String sector;
+    final String road;
+    final float roadMetres;
+
+    GeoLocation(String sector, String road, float roadMetres) {
+        this.sector = sector;
+        this.road = road;
+        this.roadMetres = roadMetres;
+    }
+
+    String describe() {
+        String where = sector != null ? sector : "Outside sectors";
+        if (road == null) return where;
+        return where + ", " + road + (roadMetres < 25 ? "" : String.format(" (%.0f m)", roadMetres));
+    }
+}
+
+// Static R-tree packed Sort-Tile-Recursive style: items are sorted into
+// vertical slices by box centre, each slice by y, and runs of NODE_SIZE
+// become leaves; every level above packs the level below in order. The
+// tree is three flat arrays, written and read as-is:
+//   item count, level count, end of each level, boxes (x0 y0 x1 y1 per
+//   entry, items first, root last), item id per leaf slot
+class PackedRTree {
+    static final int NODE_SIZE = 16;
+
+    private final int itemCount;
+    private final int[] levelEnd;
+    private final FloatBuffer boxes;
+    private final IntBuffer ids;
+
+    private PackedRTree(int itemCount, int[] levelEnd, FloatBuffer boxes, IntBuffer ids) {
+        this.itemCount = itemCount;
+        this.levelEnd = levelEnd;
+        this.boxes = boxes;
+        this.ids = ids;
+    }
+
+    static void write(float[] itemBoxes, DataOutputStream out) throws IOException {
+        int n = itemBoxes.length / 4;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Float.compare(itemBoxes[a * 4] + itemBoxes[a * 4 + 2], itemBoxes[b * 4] + itemBoxes[b * 4 + 2]));
+        int leaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+        for (int s = 0; s < n; s += sliceSize) {
+            Arrays.sort(order, s, Math.min(n, s + sliceSize), (a, b) -> Float.compare(
+                itemBoxes[a * 4 + 1] + itemBoxes[a * 4 + 3], itemBoxes[b * 4 + 1] + itemBoxes[b * 4 + 3]));
+        }
+
+        ArrayList<Integer> ends = new ArrayList<>();
+        float[] all = new float[Math.max(4, n * 4 * 2)];
+        for (int i = 0; i < n; i++) System.arraycopy(itemBoxes, order[i] * 4, all, i * 4, 4);
+        int levelStart = 0, levelEnd = n;
+        ends.add(n);
+        while (levelEnd - levelStart > 1) {
+            int next = levelEnd;
+            for (int i = levelStart; i < levelEnd; i += NODE_SIZE, next++) {
+                float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+                for (int c = i; c < Math.min(levelEnd, i + NODE_SIZE); c++) {
+                    x0 = Math.min(x0, all[c * 4]); y0 = Math.min(y0, all[c * 4 + 1]);
+                    x1 = Math.max(x1, all[c * 4 + 2]); y1 = Math.max(y1, all[c * 4 + 3]);
+                }
+                all[next * 4] = x0; all[next * 4 + 1] = y0; all[next * 4 + 2] = x1; all[next * 4 + 3] = y1;
+            }
+            levelStart = levelEnd;
+            levelEnd = next;
+            ends.add(next);
+        }
+
+        out.writeInt(n);
+        out.writeInt(ends.size());
+        for (int end : ends) out.writeInt(end);
+        for (int i = 0; i < levelEnd * 4; i++) out.writeFloat(all[i]);
+        for (int i = 0; i < n; i++) out.writeInt(order[i]);
+    }
+
+    static PackedRTree read(ByteBuffer buf) {
+        int itemCount = buf.getInt();
+        int[] levelEnd = new int[buf.getInt()];
+        for (int i = 0; i < levelEnd.length; i++) levelEnd[i] = buf.getInt();
+        int entries = levelEnd[levelEnd.length - 1];
+        ByteBuffer slice = buf.slice();
+        slice.limit(entries * 16);
+        FloatBuffer boxes = slice.asFloatBuffer();
+        buf.position(buf.position() + entries * 16);
+        slice = buf.slice();
+        slice.limit(itemCount * 4);
+        IntBuffer ids = slice.asIntBuffer();
+        buf.position(buf.position() + itemCount * 4);
+        return new PackedRTree(itemCount, levelEnd, boxes, ids);
+    }
+
+    // Calls back with every item whose box contains the point
+    void search(float x, float y, IntConsumer visitor) {
+        if (itemCount == 0) return;
+        int[] stack = new int[levelEnd.length * NODE_SIZE];
+        int top = 0;
+        stack[top++] = levelEnd[levelEnd.length - 1] - 1;
+        while (top > 0) {
+            int entry = stack[--top];
+            if (x < boxes.get(entry * 4) || y < boxes.get(entry * 4 + 1)
+                    || x > boxes.get(entry * 4 + 2) || y > boxes.get(entry * 4 + 3)) continue;
+            if (entry < itemCount) {
+                visitor.accept(ids.get(entry));
+                continue;
+            }
+            int level = levelOf(entry);
+            int first = (level > 1 ? levelEnd[level - 2] : 0) + (entry - levelEnd[level - 1]) * NODE_SIZE;
+            for (int c = first; c < Math.min(levelEnd[level - 1], first + NODE_SIZE); c++) stack[top++] = c;
+        }
+    }
+
+    // Best-first: entries come off a heap ordered by squared box distance
+    // and the search stops once no box can beat the closest item. distance
+    // must return squared distance too. Returns -1 for an empty tree.
+    int nearest(float x, float y, IntToDoubleFunction distance) {
+        if (itemCount == 0) return -1;
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        int root = levelEnd[levelEnd.length - 1] - 1;
+        queue.add(new double[]{boxDistance(root, x, y), root});
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        while (!queue.isEmpty() && queue.peek()[0] < bestDistance) {
+            int entry = (int) queue.poll()[1];
+            if (entry < itemCount) {
+                double d = distance.applyAsDouble(ids.get(entry));
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = ids.get(entry);
+                }
+                continue;
+            }
+            int level = levelOf(entry);
+            int first = (level > 1 ? levelEnd[level - 2] : 0) + (entry - levelEnd[level - 1]) * NODE_SIZE;
+            for (int c = first; c < Math.min(levelEnd[level - 1], first + NODE_SIZE); c++) {
+                double d = boxDistance(c, x, y);
+                if (d < bestDistance) queue.add(new double[]{d, c});
+            }
+        }
+        return best;
+    }
+
+    private int levelOf(int entry) {
+        int level = 0;
+        while (entry >= levelEnd[level]) level++;
+        return level;
+    }
+
+    private double boxDistance(int entry, float x, float y) {
+        double dx = Math.max(0, Math.max(boxes.get(entry * 4) - x, x - boxes.get(entry * 4 + 2)));
+        double dy = Math.max(0, Math.max(boxes.get(entry * 4 + 1) - y, y - boxes.get(entry * 4 + 3)));
+        return dx * dx + dy * dy;
+    }
+}
+
+// A road between two graph vertices. distance is the travel cost in metres;
+// geometry, when known, is the full polyline packed as lat,lon pairs.
+class RoadNetwork {
+    // distance is the imported length in metres; edited travel costs live
+    // only in GraphDS
+    final int from, to, distance, width;
+    double lat1, lon1, lat2, lon2;
+    String name;
+    double[] geometry;
+    
+    RoadNetwork(int from, int to, String name, double lat1, double lon1, 
+                double lat2, double lon2, int distance, int width) {
+        this.from = from;
+        this.to = to;
+        this.name = name;
+        this.lat1 = lat1;
+        this.lon1 = lon1;
+        this.lat2 = lat2;
+        this.lon2 = lon2;
+        this.distance = distance;
+        this.width = width;
+        this.geometry = new double[]{lat1, lon1, lat2, lon2};
+    }
+
+    RoadNetwork(int from, int to, String name, double[] geometry, int distance, int width) {
+        this(from, to, name, geometry[0], geometry[1], geometry[geometry.length - 2],
+             geometry[geometry.length - 1], distance, width);
+        this.geometry = geometry;
+    }
+}
+
+class FireStation {
+    int id;
+    String name;
+    double latitude, longitude;
+    int units;
+    int node;
+    
+    FireStation(int id, String name, double lat, double lon) {
+        this(id, name, lat, lon, 3);
+    }
+
+    FireStation(int id, String name, double lat, double lon, int units) {
+        this.id = id;
+        this.name = name;
+        this.latitude = lat;
+        this.longitude = lon;
+        this.units = units;
+        this.node = id;
+    }
+}
+
+// The dispatch fields change on engine threads after the incident is
+// visible to the panels, so they are volatile
+class Incident {
+    int id;
+    volatile int unitId = -1;
+    volatile int respondingStation;
+    int severity;
+    double lat, lon;
+    long reportedAt;
+    volatile float responseMinutes;
+    volatile float etaMinutes = -1;
+    volatile int[] route;
+    volatile GeoLocation location;
+    
+    Incident(int station, int severity, double lat, double lon) {
+        this.respondingStation = station;
+        this.severity = severity;
+        this.lat = lat;
+        this.lon = lon;
+        this.reportedAt = System.currentTimeMillis();
+    }
+}
+
+// Status of every vehicle in the fleet. Each unit is one 64-bit word in an
+// AtomicLongArray, so state changes are single CAS operations and readers
+// scan the array without taking locks:
+//   bits 0-2   state
+//   bits 3-16  home station
+//   bits 17-47 incident id + 1 (0 = none)
+//   bits 48-63 sequence, bumped on every change to rule out ABA
+// Units are laid out contiguously by station. A unit's due time lives in
+// a side array and is tagged with the sequence it belongs to, so a reader
+// that sees a new word before its due time has been written skips it
+// instead of acting on the previous one.
+class UnitRoster {
+    static final int AVAILABLE = 0, EN_ROUTE = 1, ON_SCENE = 2, RETURNING = 3;
+    static final String[] STATE_NAMES = {"AVAILABLE", "EN ROUTE", "ON SCENE", "RETURNING"};
+
+    private static final long STATE_MASK = 0x7L;
+    private static final int STATION_SHIFT = 3;
+    private static final long STATION_MASK = 0x3FFFL;
+    private static final int INCIDENT_SHIFT = 17;
+    private static final long INCIDENT_MASK = 0x7FFFFFFFL;
+    private static final int SEQ_SHIFT = 48;
+    private static final long SEQ_MASK = 0xFFFFL;
+
+    private final AtomicLongArray words;
+    private final AtomicLongArray dueAt;
+    private final AtomicLongArray dueSeq;
+    private final int[] firstUnit;
+
+    UnitRoster(List<FireStation> stations) {
+        if (stations.size() > STATION_MASK + 1) {
+            throw new IllegalArgumentException(stations.size() + " stations, the roster holds at most " + (STATION_MASK + 1));
+        }
+        firstUnit = new int[stations.size() + 1];
+        for (int i = 0; i < stations.size(); i++) {
+            firstUnit[i + 1] = firstUnit[i] + stations.get(i).units;
+        }
+        words = new AtomicLongArray(firstUnit[stations.size()]);
+        dueAt = new AtomicLongArray(words.length());
+        dueSeq = new AtomicLongArray(words.length());
+        for (int i = 0; i < stations.size(); i++) {
+            for (int u = firstUnit[i]; u < firstUnit[i + 1]; u++) {
+                words.set(u, pack(AVAILABLE, i, -1, 0));
+            }
+        }
+    }
+
+    static long pack(int state, int station, int incident, long seq) {
+        return (state & STATE_MASK)
+             | ((station & STATION_MASK) << STATION_SHIFT)
+             | (((incident + 1) & INCIDENT_MASK) << INCIDENT_SHIFT)
+             | ((seq & SEQ_MASK) << SEQ_SHIFT);
+    }
+
+    static int stateOf(long word) {
+        return (int) (word & STATE_MASK);
+    }
+
+    static int stationOf(long word) {
+        return (int) ((word >>> STATION_SHIFT) & STATION_MASK);
+    }
+
+    static int incidentOf(long word) {
+        return (int) ((word >>> INCIDENT_SHIFT) & INCIDENT_MASK) - 1;
+    }
+
+    private static long seqOf(long word) {
+        return (word >>> SEQ_SHIFT) & SEQ_MASK;
+    }
+
+    int size() {
+        return words.length();
+    }
+
+    long word(int unit) {
+        return words.get(unit);
+    }
+
+    // Due time for the word the caller read, or Long.MAX_VALUE while the
+    // change that produced it has not stored its due time yet
+    long dueAt(int unit, long word) {
+        long due = dueAt.get(unit);
+        return dueSeq.get(unit) == seqOf(word) ? due : Long.MAX_VALUE;
+    }
+
+    // Claims the first available unit of a station for an incident.
+    // Returns the unit id, or -1 if every unit there is committed.
+    int dispatch(int stationId, int incidentId, long arrivalAt) {
+        if (incidentId + 1L > INCIDENT_MASK) {
+            throw new IllegalStateException("Incident id " + incidentId + " does not fit the unit roster");
+        }
+        for (int u = firstUnit[stationId]; u < firstUnit[stationId + 1]; u++) {
+            long word = words.get(u);
+            while (stateOf(word) == AVAILABLE) {
+                long next = pack(EN_ROUTE, stationId, incidentId, seqOf(word) + 1);
+                if (words.compareAndSet(u, word, next)) {
+                    setDue(u, next, arrivalAt);
+                    return u;
+                }
+                word = words.get(u);
+            }
+        }
+        return -1;
+    }
+
+    // Moves a unit on from the exact word the caller observed; fails if
+    // anyone else changed the unit in between
+    boolean transition(int unit, long expected, int newState, long due) {
+        int incident = newState == AVAILABLE ? -1 : incidentOf(expected);
+        long next = pack(newState, stationOf(expected), incident, seqOf(expected) + 1);
+        if (!words.compareAndSet(unit, expected, next)) return false;
+        setDue(unit, next, due);
+        return true;
+    }
+
+    // The tag is written last, so a matching tag means the due time is there
+    private void setDue(int unit, long word, long due) {
+        dueAt.set(unit, due);
+        dueSeq.set(unit, seqOf(word));
+    }
+
+    // State of a unit as seen by one incident, or -1 once the unit has been
+    // released from it
+    int stateFor(int unit, int incidentId) {
+        long word = words.get(unit);
+        return incidentOf(word) == incidentId ? stateOf(word) : -1;
+    }
+
+    int[] countByState(int stationId) {
+        int[] counts = new int[4];
+        for (int u = firstUnit[stationId]; u < firstUnit[stationId + 1]; u++) {
+            counts[stateOf(words.get(u))]++;
+        }
+        return counts;
+    }
+
+    int available() {
+        int count = 0;
+        for (int u = 0; u < words.length(); u++) {
+            if (stateOf(words.get(u)) == AVAILABLE) count++;
+        }
+        return count;
+    }
+}
+
+// Ingests vehicle position fixes (GPS|unit|lat|lon|speedKmh|headingDeg).
+// Producers write into a bounded ring of primitive columns; one drain
+// thread empties it and keeps only the newest fix per vehicle, which the
+// map reads lock-free when painting. When the ring is full a server fix
+// waits up to PUBLISH_WAIT_MILLIS, which stalls the socket reader and
+// pushes back on the server, before the fix is dropped; synthetic fixes
+// from the dispatch clock go through offer and are dropped at once.
+class TelemetryPipeline {
+    static final int CAPACITY = 4096;
+    static final long PUBLISH_WAIT_MILLIS = 50;
+    static final long LIVE_FEED_MILLIS = 5000;
+
+    private final int[] units = new int[CAPACITY];
+    private final double[] lats = new double[CAPACITY];
+    private final double[] lons = new double[CAPACITY];
+    private final float[] speeds = new float[CAPACITY];
+    private final float[] headings = new float[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private final boolean[] external = new boolean[CAPACITY];
+    private int head = 0, size = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ConcurrentHashMap<Integer, VehicleFix> latest = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread drainThread;
+
+    synchronized void start() {
+        if (drainThread != null) return;
+        drainThread = new Thread(this::drainLoop, "telemetry-drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    boolean publish(String message) {
+        String[] parts = message.split("\\|");
+        if (parts.length < 6) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        try {
+            return publish(Integer.parseInt(parts[1]), Double.parseDouble(parts[2]), Double.parseDouble(parts[3]),
+                           Float.parseFloat(parts[4]), Float.parseFloat(parts[5]), System.currentTimeMillis(), true);
+        } catch (NumberFormatException e) {
+            dropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    boolean publish(int unit, double lat, double lon, float speedKmh, float heading, long time, boolean fromServer) {
+        return enqueue(unit, lat, lon, speedKmh, heading, time, fromServer, TimeUnit.MILLISECONDS.toNanos(PUBLISH_WAIT_MILLIS));
+    }
+
+    // Never waits: a full ring drops the fix
+    boolean offer(int unit, double lat, double lon, float speedKmh, float heading, long time) {
+        return enqueue(unit, lat, lon, speedKmh, heading, time, false, 0);
+    }
+
+    private boolean enqueue(int unit, double lat, double lon, float speedKmh, float heading, long time,
+                            boolean fromServer, long waitNanos) {
+        received.incrementAndGet();
+        if (unit < 0) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        lock.lock();
+        try {
+            while (size == CAPACITY) {
+                if (waitNanos <= 0) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                waitNanos = notFull.awaitNanos(waitNanos);
+            }
+            int slot = (head + size) % CAPACITY;
+            units[slot] = unit;
+            lats[slot] = lat;
+            lons[slot] = lon;
+            speeds[slot] = speedKmh;
+            headings[slot] = heading;
+            times[slot] = time;
+            external[slot] = fromServer;
+            size++;
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drains whatever is queued in one pass; older fixes for a vehicle are
+    // overwritten by newer ones in the same batch
+    private void drainLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            lock.lock();
+            try {
+                while (size == 0) notEmpty.await();
+                for (; size > 0; size--, head = (head + 1) % CAPACITY) {
+                    int unit = units[head];
+                    latest.put(unit, new VehicleFix(unit, lats[head], lons[head], speeds[head],
+                                                    headings[head], times[head], external[head], latest.get(unit)));
+                }
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    boolean hasLiveFeed(int unit, long now) {
+        VehicleFix fix = latest.get(unit);
+        return fix != null && fix.fromServer && now - fix.time < LIVE_FEED_MILLIS;
+    }
+
+    VehicleFix latest(int unit) {
+        return latest.get(unit);
+    }
+
+    Collection<VehicleFix> vehicles() {
+        return latest.values();
+    }
+
+    long received() {
+        return received.get();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+}
+
+// Immutable position fix. Rendering dead-reckons from the fix along its
+// heading and blends in from where the previous fix was projecting, so a
+// vehicle glides to its corrected track instead of jumping.
+class VehicleFix {
+    static final long MAX_EXTRAPOLATION_MILLIS = 5000;
+    static final long BLEND_MILLIS = 1000;
+
+    final int unit;
+    final double lat, lon;
+    final float speedKmh, heading;
+    final long time;
+    final boolean fromServer;
+    private final double prevLat, prevLon, prevDLat, prevDLon;
+    private final long prevTime;
+    private final double dLat, dLon;
+
+    VehicleFix(int unit, double lat, double lon, float speedKmh, float heading, long time,
+               boolean fromServer, VehicleFix previous) {
+        this.unit = unit;
+        this.lat = lat;
+        this.lon = lon;
+        this.speedKmh = speedKmh;
+        this.heading = heading;
+        this.time = time;
+        this.fromServer = fromServer;
+
+        // Degrees per millisecond along the reported heading
+        double kmPerMilli = speedKmh / 3600000.0;
+        double rad = Math.toRadians(heading);
+        this.dLat = kmPerMilli * Math.cos(rad) / 111.0;
+        this.dLon = kmPerMilli * Math.sin(rad) / (111.0 * Math.cos(Math.toRadians(lat)));
+
+        if (previous != null) {
+            prevLat = previous.lat;
+            prevLon = previous.lon;
+            prevDLat = previous.dLat;
+            prevDLon = previous.dLon;
+            prevTime = previous.time;
+        } else {
+            prevLat = lat;
+            prevLon = lon;
+            prevDLat = dLat;
+            prevDLon = dLon;
+            prevTime = time;
+        }
+    }
+
+    double[] positionAt(long now) {
+        long since = Math.max(0, Math.min(MAX_EXTRAPOLATION_MILLIS, now - time));
+        double curLat = lat + dLat * since;
+        double curLon = lon + dLon * since;
+
+        long prevSince = Math.max(0, Math.min(MAX_EXTRAPOLATION_MILLIS + BLEND_MILLIS, now - prevTime));
+        double oldLat = prevLat + prevDLat * prevSince;
+        double oldLon = prevLon + prevDLon * prevSince;
+
+        double t = Math.min(1.0, (now - time) / (double) BLEND_MILLIS);
+        if (t < 0) t = 0;
+        return new double[]{oldLat + (curLat - oldLat) * t, oldLon + (curLon - oldLon) * t};
+    }
+}
+
+// Append-only columnar history of incidents and their dispatch outcomes.
+// Records land in a mutable head block; once the head fills up or its hour
+// is over it is sealed into an immutable IncidentBlock. Queries take a
+// snapshot of the block list and scan the blocks in parallel.
+// Rows are stamped when they are recorded (for an incident that waited in
+// the queue that is its dispatch, with the wait in its own column) and the
+// stamps never go backwards, so every block stays sorted for firstIndex.
+class IncidentStore {
+    static final int BLOCK_CAPACITY = 4096;
+    static final long PARTITION_MILLIS = 60 * 60 * 1000L;
+
+    private final CopyOnWriteArrayList<IncidentBlock> sealed = new CopyOnWriteArrayList<>();
+    private long[] timestamps = new long[BLOCK_CAPACITY];
+    private byte[] severities = new byte[BLOCK_CAPACITY];
+    private short[] stationIds = new short[BLOCK_CAPACITY];
+    private double[] lats = new double[BLOCK_CAPACITY];
+    private double[] lons = new double[BLOCK_CAPACITY];
+    private float[] responseMinutes = new float[BLOCK_CAPACITY];
+    private float[] waitMinutes = new float[BLOCK_CAPACITY];
+    private int headSize = 0;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long headPartition = -1;
+    private volatile IncidentBlock headView;
+
+    void append(Incident incident) {
+        append(incident.reportedAt, incident.severity, incident.respondingStation,
+               incident.lat, incident.lon, incident.responseMinutes, 0);
+    }
+
+    // Callers on different threads can arrive a few milliseconds out of
+    // order; such a row takes the previous stamp rather than landing
+    // behind it
+    synchronized void append(long timestamp, int severity, int stationId, double lat, double lon,
+                             float response, float wait) {
+        timestamp = Math.max(timestamp, lastTimestamp);
+        lastTimestamp = timestamp;
+        long partition = timestamp / PARTITION_MILLIS;
+        if (headSize == BLOCK_CAPACITY || (headSize > 0 && partition != headPartition)) {
+            sealed.add(freezeHead());
+            timestamps = new long[BLOCK_CAPACITY];
+            severities = new byte[BLOCK_CAPACITY];
+            stationIds = new short[BLOCK_CAPACITY];
+            lats = new double[BLOCK_CAPACITY];
+            lons = new double[BLOCK_CAPACITY];
+            responseMinutes = new float[BLOCK_CAPACITY];
+            waitMinutes = new float[BLOCK_CAPACITY];
+            headSize = 0;
+        }
+        headPartition = partition;
+        timestamps[headSize] = timestamp;
+        severities[headSize] = (byte) severity;
+        stationIds[headSize] = (short) stationId;
+        lats[headSize] = lat;
+        lons[headSize] = lon;
+        responseMinutes[headSize] = response;
+        waitMinutes[headSize] = wait;
+        headSize++;
+        headView = null;
+    }
+
+    private IncidentBlock freezeHead() {
+        return new IncidentBlock(headSize,
+            Arrays.copyOf(timestamps, headSize), Arrays.copyOf(severities, headSize),
+            Arrays.copyOf(stationIds, headSize), Arrays.copyOf(lats, headSize),
+            Arrays.copyOf(lons, headSize), Arrays.copyOf(responseMinutes, headSize),
+            Arrays.copyOf(waitMinutes, headSize));
+    }
+
+    // Sealed blocks plus a frozen copy of the head, safe to scan without locking
+    List<IncidentBlock> snapshot() {
+        IncidentBlock head;
+        List<IncidentBlock> blocks;
+        synchronized (this) {
+            blocks = new ArrayList<>(sealed);
+            head = headView;
+            if (head == null && headSize > 0) {
+                head = freezeHead();
+                headView = head;
+            }
+        }
+        if (head != null) blocks.add(head);
+        return blocks;
+    }
+
+    long count(long since) {
+        return snapshot().parallelStream()
+            .filter(b -> b.maxTimestamp >= since)
+            .mapToLong(b -> b.count(since))
+            .sum();
+    }
+
+    // Indexed by severity level, slot 0 unused
+    long[] countBySeverity(long since) {
+        return snapshot().parallelStream()
+            .filter(b -> b.maxTimestamp >= since)
+            .map(b -> b.countBySeverity(since))
+            .reduce(new long[4], (a, b) -> {
+                long[] sum = new long[4];
+                for (int i = 0; i < 4; i++) sum[i] = a[i] + b[i];
+                return sum;
+            });
+    }
+
+    double averageResponse(long since) {
+        StationSummary total = new StationSummary();
+        for (StationSummary s : groupByStation(since, 0)) {
+            total.merge(s);
+        }
+        return total.average();
+    }
+
+    double percentileResponse(long since, double p) {
+        List<IncidentBlock> blocks = snapshot();
+        int[] offsets = new int[blocks.size() + 1];
+        for (int i = 0; i < blocks.size(); i++) {
+            offsets[i + 1] = offsets[i] + (int) blocks.get(i).count(since);
+        }
+        float[] values = new float[offsets[blocks.size()]];
+        if (values.length == 0) return 0;
+        IntStream.range(0, blocks.size()).parallel()
+            .forEach(i -> blocks.get(i).copyResponses(since, values, offsets[i]));
+        Arrays.parallelSort(values);
+        int index = (int) Math.ceil(p * values.length) - 1;
+        return values[Math.max(0, Math.min(values.length - 1, index))];
+    }
+
+    StationSummary[] groupByStation(long since, int stationCount) {
+        return snapshot().parallelStream()
+            .filter(b -> b.maxTimestamp >= since)
+            .map(b -> b.groupByStation(since, stationCount))
+            .reduce(emptySummaries(stationCount), IncidentStore::mergeSummaries);
+    }
+
+    private static StationSummary[] emptySummaries(int n) {
+        StationSummary[] result = new StationSummary[n];
+        for (int i = 0; i < n; i++) result[i] = new StationSummary();
+        return result;
+    }
+
+    private static StationSummary[] mergeSummaries(StationSummary[] a, StationSummary[] b) {
+        StationSummary[] result = emptySummaries(Math.max(a.length, b.length));
+        for (int i = 0; i < a.length; i++) result[i].merge(a[i]);
+        for (int i = 0; i < b.length; i++) result[i].merge(b[i]);
+        return result;
+    }
+
+    static class StationSummary {
+        long count;
+        double totalMinutes;
+        float minMinutes = Float.MAX_VALUE;
+        float maxMinutes = 0;
+
+        void add(float minutes) {
+            count++;
+            totalMinutes += minutes;
+            minMinutes = Math.min(minMinutes, minutes);
+            maxMinutes = Math.max(maxMinutes, minutes);
+        }
+
+        void merge(StationSummary other) {
+            count += other.count;
+            totalMinutes += other.totalMinutes;
+            minMinutes = Math.min(minMinutes, other.minMinutes);
+            maxMinutes = Math.max(maxMinutes, other.maxMinutes);
+        }
+
+        double average() {
+            return count > 0 ? totalMinutes / count : 0;
+        }
+    }
+}
+
+// Streaming KPIs kept per station, per severity and overall. Every incident
+// is folded into a running total plus a minute ring (last hour) and an hour
+// ring (last day) of quantile sketches, so recording is O(1) and a window
+// query merges at most 60 sketches.
+class MetricsEngine {
+    static final long QUARTER_HOUR = 15 * 60 * 1000L;
+    static final long HOUR = 60 * 60 * 1000L;
+    static final long DAY = 24 * HOUR;
+
+    private final MetricSeries total = new MetricSeries();
+    private final MetricSeries[] bySeverity = {new MetricSeries(), new MetricSeries(), new MetricSeries(), new MetricSeries()};
+    private final ConcurrentHashMap<Integer, MetricSeries> byStation = new ConcurrentHashMap<>();
+
+    void recordIncident(Incident incident) {
+        record(incident.reportedAt, incident.respondingStation, incident.severity,
+               Math.round(incident.responseMinutes * 60.0));
+    }
+
+    void record(long timestamp, int stationId, int severity, long responseSeconds) {
+        total.record(timestamp, responseSeconds);
+        bySeverity[Math.max(1, Math.min(3, severity))].record(timestamp, responseSeconds);
+        station(stationId).record(timestamp, responseSeconds);
+    }
+
+    MetricSeries total() {
+        return total;
+    }
+
+    MetricSeries severity(int severity) {
+        return bySeverity[Math.max(1, Math.min(3, severity))];
+    }
+
+    MetricSeries station(int stationId) {
+        return byStation.computeIfAbsent(stationId, id -> new MetricSeries());
+    }
+
+    static class WindowStats {
+        long count;
+        double ratePerHour, mean;
+        long p50, p90, max;
+    }
+
+    static class MetricSeries {
+        private static final long MINUTE = 60 * 1000L;
+
+        private long count;
+        private final long[] minuteEpoch = new long[60];
+        private final QuantileSketch[] minutes = new QuantileSketch[60];
+        private final long[] hourEpoch = new long[24];
+        private final QuantileSketch[] hours = new QuantileSketch[24];
+
+        synchronized void record(long timestamp, long value) {
+            count++;
+            record(minutes, minuteEpoch, timestamp / MINUTE, value);
+            record(hours, hourEpoch, timestamp / HOUR, value);
+        }
+
+        // Late events older than what a slot already holds have fallen out of
+        // the ring and only count towards the running totals
+        private static void record(QuantileSketch[] ring, long[] epochs, long epoch, long value) {
+            int i = (int) (epoch % ring.length);
+            if (ring[i] != null && epochs[i] > epoch) return;
+            if (ring[i] == null) {
+                ring[i] = new QuantileSketch();
+            } else if (epochs[i] != epoch) {
+                ring[i].clear();
+            }
+            epochs[i] = epoch;
+            ring[i].record(value);
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        // Windows up to an hour are answered from minute slots, longer ones
+        // from hour slots
+        synchronized WindowStats window(long windowMillis, long now) {
+            boolean fine = windowMillis <= HOUR;
+            long unit = fine ? MINUTE : HOUR;
+            QuantileSketch[] ring = fine ? minutes : hours;
+            long[] epochs = fine ? minuteEpoch : hourEpoch;
+            long current = now / unit;
+            long span = Math.min(ring.length, Math.max(1, windowMillis / unit));
+
+            QuantileSketch merged = new QuantileSketch();
+            for (int i = 0; i < ring.length; i++) {
+                if (ring[i] != null && epochs[i] > current - span && epochs[i] <= current) {
+                    merged.merge(ring[i]);
+                }
+            }
+            WindowStats stats = new WindowStats();
+            stats.count = merged.count();
+            stats.ratePerHour = merged.count() * (double) HOUR / windowMillis;
+            stats.mean = merged.mean();
+            stats.p50 = merged.quantile(0.5);
+            stats.p90 = merged.quantile(0.9);
+            stats.max = merged.max();
+            return stats;
+        }
+    }
+}
+
+// Asynchronous logger. A caller claims a preallocated slot in a ring,
+// stores the raw fields and returns; one writer thread turns records into
+// key=value lines, appends them to logs/firebrigade.log (rotated at 10 MB,
+// five files kept) and echoes INFO and above to the console. Callers pass
+// raw values through the key/value overloads (up to two numbers and two
+// strings), so nothing on the calling thread formats text or touches I/O;
+// only the soak harness's periodic summaries arrive preformatted. A full
+// ring drops the record and counts it instead of blocking. The level can be changed
+// at runtime with setLevel, -Dfirebrigade.log.level or the metrics
+// endpoint's /log?level= handler.
+class Log {
+    static final int DEBUG = 0, INFO = 1, WARN = 2, ERROR = 3;
+    static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+    static final int CAPACITY = 8192;
+    static final long MAX_FILE_BYTES = 10L << 20;
+    static final int KEEP_FILES = 5;
+
+    private static volatile int level = parseLevel(System.getProperty("firebrigade.log.level", "info"));
+    private static final boolean console = !"false".equals(System.getProperty("firebrigade.log.console"));
+    private static final File directory = new File(System.getProperty("firebrigade.log.dir", "logs"));
+
+    // Ring columns. Slot i carries sequences i, i + CAPACITY, ...; a slot is
+    // readable once published[i] holds the sequence the writer expects.
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] levels = new int[CAPACITY];
+    private static final String[] tags = new String[CAPACITY];
+    private static final String[] messages = new String[CAPACITY];
+    private static final String[] keys1 = new String[CAPACITY], keys2 = new String[CAPACITY];
+    private static final long[] values1 = new long[CAPACITY], values2 = new long[CAPACITY];
+    private static final String[] textKeys = new String[CAPACITY], texts = new String[CAPACITY];
+    private static final String[] textKeys2 = new String[CAPACITY], texts2 = new String[CAPACITY];
+    private static final Throwable[] errors = new Throwable[CAPACITY];
+    private static final AtomicLong claimed = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile long consumed;
+    private static volatile boolean closing;
+    private static volatile boolean sleeping;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) published.set(i, -1);
+        writer = new Thread(Log::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closing = true;
+            LockSupport.unpark(writer);
+            try {
+                writer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    static int parseLevel(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(name.trim())) return i;
+        }
+        throw new IllegalArgumentException("Unknown log level: " + name);
+    }
+
+    static void setLevel(int newLevel) {
+        level = newLevel;
+        info("LOG", "Level changed", "level", LEVEL_NAMES[newLevel]);
+    }
+
+    static int level() {
+        return level;
+    }
+
+    static boolean enabled(int at) {
+        return at >= level;
+    }
+
+    static long dropped() {
+        return dropped.sum();
+    }
+
+    static void debug(String tag, String message) { log(DEBUG, tag, message, null, 0, null, 0, null, null, null, null, null); }
+    static void debug(String tag, String message, String key, long value) { log(DEBUG, tag, message, key, value, null, 0, null, null, null, null, null); }
+    static void debug(String tag, String message, String key1, long value1, String key2, long value2) { log(DEBUG, tag, message, key1, value1, key2, value2, null, null, null, null, null); }
+    static void debug(String tag, String message, String key, String text) { log(DEBUG, tag, message, null, 0, null, 0, key, text, null, null, null); }
+
+    static void info(String tag, String message) { log(INFO, tag, message, null, 0, null, 0, null, null, null, null, null); }
+    static void info(String tag, String message, String key, long value) { log(INFO, tag, message, key, value, null, 0, null, null, null, null, null); }
+    static void info(String tag, String message, String key1, long value1, String key2, long value2) { log(INFO, tag, message, key1, value1, key2, value2, null, null, null, null, null); }
+    static void info(String tag, String message, String key, String text) { log(INFO, tag, message, null, 0, null, 0, key, text, null, null, null); }
+    static void info(String tag, String message, String textKey, String text, String key, long value) { log(INFO, tag, message, key, value, null, 0, textKey, text, null, null, null); }
+    static void info(String tag, String message, String textKey, String text, String key1, long value1, String key2, long value2) { log(INFO, tag, message, key1, value1, key2, value2, textKey, text, null, null, null); }
+
+    static void warn(String tag, String message) { log(WARN, tag, message, null, 0, null, 0, null, null, null, null, null); }
+    static void warn(String tag, String message, String key, long value) { log(WARN, tag, message, key, value, null, 0, null, null, null, null, null); }
+    static void warn(String tag, String message, String key, String text) { log(WARN, tag, message, null, 0, null, 0, key, text, null, null, null); }
+    static void warn(String tag, String message, String textKey, String text, String key, long value) { log(WARN, tag, message, key, value, null, 0, textKey, text, null, null, null); }
+    static void warn(String tag, String message, String key1, String text1, String key2, String text2) { log(WARN, tag, message, null, 0, null, 0, key1, text1, key2, text2, null); }
+    static void warn(String tag, String message, Throwable error) { log(WARN, tag, message, null, 0, null, 0, null, null, null, null, error); }
+
+    static void error(String tag, String message) { log(ERROR, tag, message, null, 0, null, 0, null, null, null, null, null); }
+    static void error(String tag, String message, String key, String text) { log(ERROR, tag, message, null, 0, null, 0, key, text, null, null, null); }
+    static void error(String tag, String message, String key1, String text1, String key2, String text2) { log(ERROR, tag, message, null, 0, null, 0, key1, text1, key2, text2, null); }
+    static void error(String tag, String message, Throwable error) { log(ERROR, tag, message, null, 0, null, 0, null, null, null, null, error); }
+    static void error(String tag, String message, String key, String text, Throwable error) { log(ERROR, tag, message, null, 0, null, 0, key, text, null, null, error); }
+
+    private static void log(int at, String tag, String message, String key1, long value1, String key2, long value2,
+                            String textKey, String text, String textKey2, String text2, Throwable error) {
+        if (at < level) return;
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        int i = (int) (seq & (CAPACITY - 1));
+        times[i] = System.currentTimeMillis();
+        levels[i] = at;
+        tags[i] = tag;
+        messages[i] = message;
+        keys1[i] = key1;
+        values1[i] = value1;
+        keys2[i] = key2;
+        values2[i] = value2;
+        textKeys[i] = textKey;
+        texts[i] = text;
+        textKeys2[i] = textKey2;
+        texts2[i] = text2;
+        errors[i] = error;
+        published.set(i, seq);
+        if (sleeping) LockSupport.unpark(writer);
+    }
+
+    // Writer thread: drain what is published, flush when caught up, spin
+    // briefly, then park until a producer sees the sleeping flag and unparks.
+    // The flag is set before the final re-check so a record published in
+    // between is either seen here or triggers the unpark.
+    private static void writeLoop() {
+        LogFile file = new LogFile(directory, MAX_FILE_BYTES, KEEP_FILES);
+        StringBuilder line = new StringBuilder(256);
+        long next = 0, reportedDrops = 0;
+        int idle = 0;
+        while (true) {
+            int i = (int) (next & (CAPACITY - 1));
+            if (published.get(i) != next) {
+                long drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    line.setLength(0);
+                    format(line, System.currentTimeMillis(), WARN, "LOG", "Records dropped, ring full", "count", drops - reportedDrops, null, 0, null, null, null, null);
+                    file.write(line);
+                    reportedDrops = drops;
+                }
+                if (idle == 0) file.flush();
+                if (closing) {
+                    file.close();
+                    return;
+                }
+                if (++idle < 100) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                sleeping = true;
+                if (published.get(i) != next && !closing) LockSupport.park(Log.class);
+                sleeping = false;
+                continue;
+            }
+            idle = 0;
+            line.setLength(0);
+            format(line, times[i], levels[i], tags[i], messages[i], keys1[i], values1[i], keys2[i], values2[i], textKeys[i], texts[i], textKeys2[i], texts2[i]);
+            Throwable error = errors[i];
+            int at = levels[i];
+            tags[i] = messages[i] = texts[i] = texts2[i] = null;
+            errors[i] = null;
+            consumed = ++next;
+
+            if (error != null) {
+                StringWriter trace = new StringWriter();
+                error.printStackTrace(new PrintWriter(trace));
+                line.append(" error=\"").append(error).append("\"\n").append(trace.toString().trim());
+            }
+            file.write(line);
+            if (console && at >= INFO) System.out.println(line);
+        }
+    }
+
+    // Writer-thread only: the date part is reformatted once per second
+    private static final SimpleDateFormat stamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.");
+    private static long stampSecond = -1;
+    private static String stampText;
+
+    private static void format(StringBuilder line, long time, int at, String tag, String message, String key1, long value1,
+                               String key2, long value2, String textKey, String text, String textKey2, String text2) {
+        if (time / 1000 != stampSecond) {
+            stampSecond = time / 1000;
+            stampText = stamp.format(new Date(stampSecond * 1000));
+        }
+        int millis = (int) (time % 1000);
+        line.append(stampText).append((char) ('0' + millis / 100)).append((char) ('0' + millis / 10 % 10))
+            .append((char) ('0' + millis % 10)).append(' ');
+        line.append(LEVEL_NAMES[at]);
+        for (int pad = LEVEL_NAMES[at].length(); pad < 5; pad++) line.append(' ');
+        line.append(" [").append(tag).append("] ").append(message);
+        if (key1 != null) line.append(' ').append(key1).append('=').append(value1);
+        if (key2 != null) line.append(' ').append(key2).append('=').append(value2);
+        if (textKey != null) appendText(line, textKey, text);
+        if (textKey2 != null) appendText(line, textKey2, text2);
+    }
+
+    private static void appendText(StringBuilder line, String key, String text) {
+        line.append(' ').append(key).append('=');
+        boolean quote = text == null || text.indexOf(' ') >= 0 || text.indexOf('"') >= 0;
+        if (quote) line.append('"').append(String.valueOf(text).replace("\"", "\\\"")).append('"');
+        else line.append(text);
+    }
+}
+
+// Size-rotated log file used by the Log writer thread: firebrigade.log is
+// renamed to firebrigade.log.1 (and so on up to the keep count) once it
+// passes the size limit. Failing to open the directory just turns file
+// output off.
+class LogFile {
+    private final File directory;
+    private final long maxBytes;
+    private final int keep;
+    private Writer out;
+    private long written;
+    private boolean failed;
+
+    LogFile(File directory, long maxBytes, int keep) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.keep = keep;
+    }
+
+    void write(CharSequence line) {
+        if (failed) return;
+        try {
+            if (out == null) open();
+            if (written >= maxBytes) rotate();
+            out.append(line).append('\n');
+            written += line.length() + 1;
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("[LOG] File logging disabled: " + e.getMessage());
+        }
+    }
+
+    void flush() {
+        try {
+            if (out != null) out.flush();
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    void close() {
+        try {
+            if (out != null) out.close();
+        } catch (IOException e) {
+            // Nothing left to report to
+        }
+    }
+
+    private File file(int generation) {
+        return new File(directory, generation == 0 ? "firebrigade.log" : "firebrigade.log." + generation);
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        File current = file(0);
+        written = current.length();
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(current, true), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        file(keep).delete();
+        for (int generation = keep - 1; generation >= 0; generation--) {
+            File from = file(generation);
+            if (from.exists()) from.renameTo(file(generation + 1));
+        }
+        open();
+    }
+}
+
+// Process-wide hot-path instrumentation: lock-free counters, latency
+// histograms and polled gauges, served as Prometheus text on a loopback
+// HTTP endpoint and shown in the map's debug overlay. Off unless started
+// with -Dfirebrigade.metrics=true; ENABLED is a static final so the JIT
+// folds every check away and a disabled build pays for nothing but the
+// call.
+class Instrumentation {
+    static final boolean ENABLED = Boolean.getBoolean("firebrigade.metrics");
+    static final int DEFAULT_PORT = 9464;
+
+    private static final LinkedHashMap<String, Metric> registry = new LinkedHashMap<>();
+    private static HttpServer server;
+    private static final LinkedHashMap<String, Function<String, String>> controls = new LinkedHashMap<>();
+
+    static final Counter SOCKET_SENT = counter("firebrigade_socket_sent_total", "", "Messages written to the server");
+    static final Counter SOCKET_UNSENT = counter("firebrigade_socket_unsent_total", "", "Messages dropped because the server was not connected");
+    static final Counter SOCKET_RECEIVED_GPS = counter("firebrigade_socket_received_total", "type=\"gps\"", "Lines read from the server");
+    static final Counter SOCKET_RECEIVED_OTHER = counter("firebrigade_socket_received_total", "type=\"other\"", "Lines read from the server");
+    static final Histogram SOCKET_SEND = histogram("firebrigade_socket_send_seconds", "", "Time to write one message to the server");
+    static final Counter ROUTE_CACHE_HITS = counter("firebrigade_route_cache_total", "result=\"hit\"", "Shortest-path tree lookups");
+    static final Counter ROUTE_CACHE_MISSES = counter("firebrigade_route_cache_total", "result=\"miss\"", "Shortest-path tree lookups");
+    static final Histogram ROUTE_TREE = histogram("firebrigade_route_tree_seconds", "", "Dijkstra time for one shortest-path tree");
+    static final Histogram ETA_REFRESH = histogram("firebrigade_eta_refresh_seconds", "", "Time to refresh ETAs for all en-route units");
+    static final Histogram MAP_PAINT = histogram("firebrigade_map_paint_seconds", "", "Map panel paint time");
+    static final Histogram STATS_UPDATE = histogram("firebrigade_panel_update_seconds", "panel=\"dashboard\"", "Panel refresh time on the EDT");
+    static final Histogram INCIDENTS_UPDATE = histogram("firebrigade_panel_update_seconds", "panel=\"incidents\"", "Panel refresh time on the EDT");
+    static final Histogram STATIONS_UPDATE = histogram("firebrigade_panel_update_seconds", "panel=\"stations\"", "Panel refresh time on the EDT");
+    static final Histogram ANALYTICS_UPDATE = histogram("firebrigade_panel_update_seconds", "panel=\"analytics\"", "Panel refresh time on the EDT");
+
+    // Start of a timed section; 0 when instrumentation is off
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    static Counter counter(String name, String labels, String help) {
+        return register(new Counter(name, labels, help));
+    }
+
+    static Histogram histogram(String name, String labels, String help) {
+        return register(new Histogram(name, labels, help));
+    }
+
+    static void gauge(String name, String labels, String help, LongSupplier value) {
+        if (ENABLED) register(new Gauge(name, labels, help, value));
+    }
+
+    // A total some other component already keeps, read at scrape time
+    static void counter(String name, String labels, String help, LongSupplier value) {
+        if (ENABLED) register(new PolledCounter(name, labels, help, value));
+    }
+
+    // A metric re-registered under the same name and labels replaces the
+    // old one, so a rebuilt panel does not leave stale gauges behind
+    private static <M extends Metric> M register(M metric) {
+        synchronized (registry) {
+            registry.put(metric.name + "{" + metric.labels + "}", metric);
+        }
+        return metric;
+    }
+
+    private static List<Metric> metrics() {
+        synchronized (registry) {
+            return new ArrayList<>(registry.values());
+        }
+    }
+
+    static synchronized void startEndpoint() {
+        if (!ENABLED || server != null) return;
+        int port = Integer.getInteger("firebrigade.metrics.port", DEFAULT_PORT);
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> respond(exchange, 200, prometheusText()));
+            // GET /log reports the level, /log?level=debug changes it
+            server.createContext("/log", exchange -> {
+                String query = exchange.getRequestURI().getQuery();
+                try {
+                    if (query != null && query.startsWith("level=")) {
+                        Log.setLevel(Log.parseLevel(query.substring("level=".length())));
+                    }
+                    respond(exchange, 200, Log.LEVEL_NAMES[Log.level()] + "\n");
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, e.getMessage() + "\n");
+                }
+            });
+            controls.forEach(Instrumentation::addControl);
+            server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "metrics-http");
+                t.setDaemon(true);
+                return t;
+            }));
+            server.start();
+            Log.info("METRICS", "Serving /metrics on 127.0.0.1", "port", port);
+        } catch (IOException e) {
+            server = null;
+            Log.warn("METRICS", "Could not open endpoint", "reason", e.getMessage(), "port", port);
+        }
+    }
+
+    // Runtime setting at /<path>: the handler gets the query string (null
+    // for a plain GET) and returns the current value; a rejected value
+    // throws IllegalArgumentException and answers 400
+    static synchronized void control(String path, Function<String, String> handler) {
+        controls.put(path, handler);
+        if (server != null) addControl(path, handler);
+    }
+
+    private static void addControl(String path, Function<String, String> handler) {
+        server.createContext(path, exchange -> {
+            try {
+                respond(exchange, 200, handler.apply(exchange.getRequestURI().getQuery()) + "\n");
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage() + "\n");
+            }
+        });
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Text exposition format 0.0.4; histograms go out as summaries
+    static String prometheusText() {
+        StringBuilder text = new StringBuilder();
+        String previous = null;
+        for (Metric metric : metrics()) {
+            if (!metric.name.equals(previous)) {
+                text.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+                text.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+                previous = metric.name;
+            }
+            metric.writeTo(text);
+        }
+        return text.toString();
+    }
+
+    // One short line per metric for the debug overlay
+    static List<String> overlayLines() {
+        ArrayList<String> lines = new ArrayList<>();
+        for (Metric metric : metrics()) {
+            lines.add(metric.summary());
+        }
+        return lines;
+    }
+
+    abstract static class Metric {
+        final String name, labels, help;
+
+        Metric(String name, String labels, String help) {
+            this.name = name;
+            this.labels = labels;
+            this.help = help;
+        }
+
+        abstract String type();
+
+        abstract void writeTo(StringBuilder text);
+
+        abstract String summary();
+
+        String label() {
+            String shortName = name.replace("firebrigade_", "");
+            return labels.isEmpty() ? shortName : shortName + "{" + labels.replace("\"", "") + "}";
+        }
+
+        void sample(StringBuilder text, String suffix, String extraLabel, String value) {
+            text.append(name).append(suffix);
+            String all = labels.isEmpty() ? extraLabel : (extraLabel.isEmpty() ? labels : labels + "," + extraLabel);
+            if (!all.isEmpty()) text.append('{').append(all).append('}');
+            text.append(' ').append(value).append('\n');
+        }
+    }
+
+    static class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name, String labels, String help) {
+            super(name, labels, help);
+        }
+
+        void inc() {
+            if (ENABLED) value.increment();
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        String type() {
+            return "counter";
+        }
+
+        void writeTo(StringBuilder text) {
+            sample(text, "", "", Long.toString(get()));
+        }
+
+        String summary() {
+            return String.format("%s %d", label(), get());
+        }
+    }
+
+    static class Gauge extends Metric {
+        private final LongSupplier value;
+
+        Gauge(String name, String labels, String help, LongSupplier value) {
+            super(name, labels, help);
+            this.value = value;
+        }
+
+        String type() {
+            return "gauge";
+        }
+
+        void writeTo(StringBuilder text) {
+            sample(text, "", "", Long.toString(value.getAsLong()));
+        }
+
+        String summary() {
+            return String.format("%s %d", label(), value.getAsLong());
+        }
+    }
+
+    static class PolledCounter extends Gauge {
+        PolledCounter(String name, String labels, String help, LongSupplier value) {
+            super(name, labels, help, value);
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+    }
+
+    // Microsecond latencies in QuantileSketch's bucket layout, kept in an
+    // AtomicLongArray so recording threads never block each other
+    static class Histogram extends Metric {
+        private final AtomicLongArray counts = new AtomicLongArray(QuantileSketch.BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name, String labels, String help) {
+            super(name, labels, help);
+        }
+
+        void stop(long started) {
+            if (ENABLED && started != 0) record((System.nanoTime() - started) / 1000);
+        }
+
+        void record(long micros) {
+            counts.incrementAndGet(QuantileSketch.indexOf(micros));
+            sum.add(micros);
+            if (micros > max.get()) max.accumulateAndGet(micros, Math::max);
+        }
+
+        QuantileSketch snapshot() {
+            long[] copy = new long[counts.length()];
+            for (int i = 0; i < copy.length; i++) copy[i] = counts.get(i);
+            return QuantileSketch.of(copy, sum.sum(), max.get());
+        }
+
+        String type() {
+            return "summary";
+        }
+
+        void writeTo(StringBuilder text) {
+            QuantileSketch s = snapshot();
+            for (double q : new double[]{0.5, 0.9, 0.99}) {
+                sample(text, "", "quantile=\"" + q + "\"", Double.toString(s.quantile(q) / 1e6));
+            }
+            sample(text, "_sum", "", Double.toString(s.mean() * s.count() / 1e6));
+            sample(text, "_count", "", Long.toString(s.count()));
+        }
+
+        String summary() {
+            QuantileSketch s = snapshot();
+            return String.format("%s n=%d p50=%.2fms p99=%.2fms max=%.2fms", label(), s.count(),
+                s.quantile(0.5) / 1000.0, s.quantile(0.99) / 1000.0, s.max() / 1000.0);
+        }
+    }
+}
+
+// Log-linear histogram in the style of HdrHistogram: values are bucketed by
+// power of two and then split into 16 linear sub-buckets, which bounds the
+// relative error at about 6%. Sketches with the same layout merge by adding
+// counts.
+class QuantileSketch {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_SHIFT = 20;
+    static final int BUCKETS = SUB_COUNT * (MAX_SHIFT + 2);
+
+    private final long[] counts = new long[BUCKETS];
+    private long count, sum, max;
+
+    // Sketch over bucket counts gathered elsewhere in the same layout
+    static QuantileSketch of(long[] counts, long sum, long max) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < BUCKETS; i++) {
+            sketch.counts[i] = counts[i];
+            sketch.count += counts[i];
+        }
+        sketch.sum = sum;
+        sketch.max = max;
+        return sketch;
+    }
+
+    void record(long value) {
+        value = Math.max(0, value);
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    void merge(QuantileSketch other) {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        count = sum = max = 0;
+    }
+
+    long count() {
+        return count;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    long quantile(double q) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, upperBound(i));
+        }
+        return max;
+    }
+
+    static int indexOf(long value) {
+        value = Math.max(0, value);
+        if (value < SUB_COUNT) return (int) value;
+        int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        int sub = (int) Math.min(SUB_COUNT - 1, (value >>> shift) - SUB_COUNT);
+        return SUB_COUNT + shift * SUB_COUNT + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        int sub = (index - SUB_COUNT) % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+    }
+}
+
+// Immutable column block: one primitive array per field, rows share an index
+class IncidentBlock {
+    final int size;
+    final long[] timestamps;
+    final byte[] severities;
+    final short[] stationIds;
+    final double[] lats, lons;
+    final float[] responseMinutes;
+    // Time spent queued for a unit; responseMinutes already includes it
+    final float[] waitMinutes;
+    final long minTimestamp, maxTimestamp;
+
+    IncidentBlock(int size, long[] timestamps, byte[] severities, short[] stationIds,
+                  double[] lats, double[] lons, float[] responseMinutes, float[] waitMinutes) {
+        this.size = size;
+        this.timestamps = timestamps;
+        this.severities = severities;
+        this.stationIds = stationIds;
+        this.lats = lats;
+        this.lons = lons;
+        this.responseMinutes = responseMinutes;
+        this.waitMinutes = waitMinutes;
+        this.minTimestamp = size > 0 ? timestamps[0] : Long.MAX_VALUE;
+        this.maxTimestamp = size > 0 ? timestamps[size - 1] : Long.MIN_VALUE;
+    }
+
+    // Rows are appended in time order, so the first row at or after 'since'
+    // can be found by binary search
+    private int firstIndex(long since) {
+        if (since <= minTimestamp) return 0;
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] < since) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    long count(long since) {
+        return size - firstIndex(since);
+    }
+
+    long[] countBySeverity(long since) {
+        long[] counts = new long[4];
+        for (int i = firstIndex(since); i < size; i++) {
+            counts[Math.max(1, Math.min(3, severities[i]))]++;
+        }
+        return counts;
+    }
+
+    void copyResponses(long since, float[] dest, int offset) {
+        int from = firstIndex(since);
+        System.arraycopy(responseMinutes, from, dest, offset, size - from);
+    }
+
+    IncidentStore.StationSummary[] groupByStation(long since, int stationCount) {
+        int n = stationCount;
+        for (int i = 0; i < size; i++) n = Math.max(n, stationIds[i] + 1);
+        IncidentStore.StationSummary[] result = new IncidentStore.StationSummary[n];
+        for (int i = 0; i < n; i++) result[i] = new IncidentStore.StationSummary();
+        for (int i = firstIndex(since); i < size; i++) {
+            result[stationIds[i]].add(responseMinutes[i]);
+        }
+        return result;
+    }
+}
+
+// Road graph with runtime edits. Readers work on an immutable
+// GraphSnapshot (CSR arrays plus a version); an edit copies only the
+// weight or closure array and publishes a new snapshot, so a route query
+// that is already running keeps the consistent view it started with.
+class GraphDS {
+    private final int vertices;
+    // Master edge list {u, v, weight, closed}; snapshots are rebuilt from it
+    // after addEdge and edits are mirrored into it
+    private final ArrayList<int[]> edges = new ArrayList<>();
+    private long lastVersion = 0;
+    private volatile GraphSnapshot current;
+    private final CopyOnWriteArrayList<EdgeListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Weights are effective travel costs; a closed road reports Integer.MAX_VALUE
+    interface EdgeListener {
+        void edgeChanged(int u, int v, int oldWeight, int newWeight);
+    }
+    
+    GraphDS(int vertices) {
+        this.vertices = vertices;
+        this.current = GraphSnapshot.build(vertices, edges, lastVersion);
+    }
+    
+    synchronized void addEdge(int u, int v, int weight) {
+        edges.add(new int[]{u, v, weight, 0});
+        current = null;
+    }
+
+    int vertexCount() {
+        return vertices;
+    }
+
+    long version() {
+        return snapshot().version;
+    }
+
+    void addEdgeListener(EdgeListener listener) {
+        listeners.add(listener);
+    }
+
+    GraphSnapshot snapshot() {
+        GraphSnapshot snap = current;
+        if (snap != null) return snap;
+        synchronized (this) {
+            if (current == null) {
+                current = GraphSnapshot.build(vertices, edges, ++lastVersion);
+            }
+            return current;
+        }
+    }
+
+    // Changes the travel cost of the road between u and v in both directions
+    void setEdgeWeight(int u, int v, int weight) {
+        edit(u, v, weight, null);
+    }
+
+    void blockEdge(int u, int v) {
+        edit(u, v, -1, true);
+    }
+
+    void unblockEdge(int u, int v) {
+        edit(u, v, -1, false);
+    }
+
+    // Travel cost between u and v in the current snapshot, closed or not;
+    // -1 if there is no such edge
+    int edgeWeight(int u, int v) {
+        GraphSnapshot snap = snapshot();
+        int e = snap.edgeIndex(u, v);
+        return e < 0 ? -1 : snap.weights[e];
+    }
+
+    boolean isBlocked(int u, int v) {
+        GraphSnapshot snap = snapshot();
+        int e = snap.edgeIndex(u, v);
+        return e >= 0 && snap.blocked[e];
+    }
+
+    private void edit(int u, int v, int weight, Boolean block) {
+        int before, after;
+        synchronized (this) {
+            GraphSnapshot snap = snapshot();
+            int e = snap.edgeIndex(u, v);
+            if (e < 0) return;
+            before = snap.weight(e);
+
+            int[] weights = snap.weights;
+            boolean[] blocked = snap.blocked;
+            if (weight >= 0) {
+                weights = weights.clone();
+                setBothWays(snap, weights, null, u, v, weight, false);
+            }
+            if (block != null) {
+                blocked = blocked.clone();
+                setBothWays(snap, null, blocked, u, v, 0, block);
+            }
+            for (int[] edge : edges) {
+                if ((edge[0] == u && edge[1] == v) || (edge[0] == v && edge[1] == u)) {
+                    if (weight >= 0) edge[2] = weight;
+                    if (block != null) edge[3] = block ? 1 : 0;
+                }
+            }
+            current = new GraphSnapshot(++lastVersion, snap.offsets, snap.targets, weights, blocked);
+            after = current.weight(e);
+        }
+        if (before != after) {
+            for (EdgeListener listener : listeners) {
+                listener.edgeChanged(u, v, before, after);
+            }
+        }
+    }
+
+    private static void setBothWays(GraphSnapshot snap, int[] weights, boolean[] blocked,
+                                    int u, int v, int weight, boolean block) {
+        for (int[] pair : new int[][]{{u, v}, {v, u}}) {
+            for (int e = snap.offsets[pair[0]]; e < snap.offsets[pair[0] + 1]; e++) {
+                if (snap.targets[e] != pair[1]) continue;
+                if (weights != null) weights[e] = weight;
+                if (blocked != null) blocked[e] = block;
+            }
+        }
+    }
+
+    // Binary-heap Dijkstra from root over one snapshot. Roads are added in
+    // both directions, so the tree also gives distances *to* root.
+    ShortestPathTree shortestPathTree(int root) {
+        return shortestPathTree(root, Integer.MAX_VALUE);
+    }
+
+    // Stops once every node within maxDist is settled; only dist values up
+    // to maxDist are final
+    ShortestPathTree shortestPathTree(int root, int maxDist) {
+        long started = Instrumentation.start();
+        GraphSnapshot snap = snapshot();
+        int[] dist = new int[vertices];
+        int[] parent = new int[vertices];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        Arrays.fill(parent, -1);
+        dist[root] = 0;
+
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> Integer.compare(a[0], b[0]));
+        queue.add(new int[]{0, root});
+        while (!queue.isEmpty()) {
+            int[] top = queue.poll();
+            int u = top[1];
+            if (top[0] > maxDist) break;
+            if (top[0] > dist[u]) continue;
+            for (int e = snap.offsets[u]; e < snap.offsets[u + 1]; e++) {
+                if (snap.blocked[e]) continue;
+                int to = snap.targets[e];
+                int alt = dist[u] + snap.weights[e];
+                if (alt < dist[to]) {
+                    dist[to] = alt;
+                    parent[to] = u;
+                    queue.add(new int[]{alt, to});
+                }
+            }
+        }
+        Instrumentation.ROUTE_TREE.stop(started);
+        return new ShortestPathTree(root, snap.version, dist, parent);
+    }
+}
+
+// Immutable adjacency in compressed sparse row form: the edges leaving u
+// are offsets[u] until offsets[u + 1]
+class GraphSnapshot {
+    final long version;
+    final int[] offsets, targets, weights;
+    final boolean[] blocked;
+
+    GraphSnapshot(long version, int[] offsets, int[] targets, int[] weights, boolean[] blocked) {
+        this.version = version;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.blocked = blocked;
+    }
+
+    static GraphSnapshot build(int vertices, List<int[]> edges, long version) {
+        int[] offsets = new int[vertices + 1];
+        for (int[] edge : edges) offsets[edge[0] + 1]++;
+        for (int i = 0; i < vertices; i++) offsets[i + 1] += offsets[i];
+        int[] fill = Arrays.copyOf(offsets, vertices);
+        int[] targets = new int[edges.size()];
+        int[] weights = new int[edges.size()];
+        boolean[] blocked = new boolean[edges.size()];
+        for (int[] edge : edges) {
+            int slot = fill[edge[0]]++;
+            targets[slot] = edge[1];
+            weights[slot] = edge[2];
+            blocked[slot] = edge[3] != 0;
+        }
+        return new GraphSnapshot(version, offsets, targets, weights, blocked);
+    }
+
+    int edgeIndex(int u, int v) {
+        for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+            if (targets[e] == v) return e;
+        }
+        return -1;
+    }
+
+    int weight(int e) {
+        return blocked[e] ? Integer.MAX_VALUE : weights[e];
+    }
+}
+
+// Shortest-path trees by root, shared by dispatch and the ETA service.
+// An edge change only evicts the trees it can affect. A tree computed
+// against a snapshot that was replaced before it could be stored is
+// returned to its caller but not cached.
+class RouteCache implements GraphDS.EdgeListener {
+    static final int MAX_TREES = 256;
+
+    private final GraphDS graph;
+    private final LinkedHashMap<Integer, ShortestPathTree> trees = new LinkedHashMap<Integer, ShortestPathTree>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ShortestPathTree> eldest) {
+            return size() > MAX_TREES;
+        }
+    };
+    private long hits, misses, evictions;
+
+    RouteCache(GraphDS graph) {
+        this.graph = graph;
+        graph.addEdgeListener(this);
+    }
+
+    ShortestPathTree get(int root) {
+        synchronized (this) {
+            ShortestPathTree cached = trees.get(root);
+            if (cached != null) {
+                hits++;
+                Instrumentation.ROUTE_CACHE_HITS.inc();
+                return cached;
+            }
+            misses++;
+            Instrumentation.ROUTE_CACHE_MISSES.inc();
+        }
+        ShortestPathTree tree = graph.shortestPathTree(root);
+        synchronized (this) {
+            if (tree.version == graph.version()) {
+                trees.put(root, tree);
+            }
+        }
+        return tree;
+    }
+
+    @Override
+    public synchronized void edgeChanged(int u, int v, int oldWeight, int newWeight) {
+        int before = trees.size();
+        trees.values().removeIf(tree -> tree.affectedBy(u, v, oldWeight, newWeight));
+        evictions += before - trees.size();
+    }
+
+    synchronized String stats() {
+        return String.format("%d trees | %d hits | %d misses | %d evicted", trees.size(), hits, misses, evictions);
+    }
+}
+
+// Result of one Dijkstra run, rooted at the destination
+class ShortestPathTree {
+    final int root;
+    final long version;
+    final int[] dist;
+    final int[] parent;
+
+    ShortestPathTree(int root, long version, int[] dist, int[] parent) {
+        this.root = root;
+        this.version = version;
+        this.dist = dist;
+        this.parent = parent;
+    }
+
+    boolean reachable(int node) {
+        return dist[node] != Integer.MAX_VALUE;
+    }
+
+    // Node sequence from 'node' to the root
+    int[] pathFrom(int node) {
+        if (!reachable(node)) return new int[0];
+        ArrayList<Integer> path = new ArrayList<>();
+        for (int current = node; current != -1; current = parent[current]) {
+            path.add(current);
+        }
+        return path.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // A slower (or closed) edge only matters if the tree uses it; a faster
+    // (or reopened) one only if it now offers a shortcut to either endpoint
+    boolean affectedBy(int u, int v, int oldWeight, int newWeight) {
+        if (newWeight > oldWeight) {
+            return parent[u] == v || parent[v] == u;
+        }
+        return (reachable(u) && (long) dist[u] + newWeight < dist[v])
+            || (reachable(v) && (long) dist[v] + newWeight < dist[u]);
+    }
+}
+
+// Keeps ETAs and routes of en-route units current. Responses heading for
+// the same graph node share one shortest-path tree rooted there, so a
+// unit's remaining distance is a lookup from whichever node it is nearest.
+// Trees come from the RouteCache, which only drops the ones an edge change
+// affects; rebuilds run on a small pool capped at half the cores.
+class EtaService {
+    static final double AVERAGE_SPEED_KMH = 40;
+    static final long PERIOD_MILLIS = 2000;
+
+    private final RouteCache routes;
+    private final double[] nodeLats, nodeLons;
+    private final NodeIndex nodes;
+    private final List<FireStation> stations;
+    private final UnitRoster roster;
+    private final TelemetryPipeline telemetry;
+    private final ConcurrentHashMap<Integer, Incident> responses = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "eta-scheduler"));
+    private final ExecutorService workers = Executors.newFixedThreadPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> daemon(r, "eta-worker"));
+
+    EtaService(GraphDS graph, RouteCache routes, double[] nodeLats, double[] nodeLons, NodeIndex nodes,
+               List<FireStation> stations, UnitRoster roster, TelemetryPipeline telemetry) {
+        this.routes = routes;
+        this.nodeLats = nodeLats;
+        this.nodeLons = nodeLons;
+        this.nodes = nodes;
+        this.stations = stations;
+        this.roster = roster;
+        this.telemetry = telemetry;
+        graph.addEdgeListener((u, v, oldWeight, newWeight) -> scheduler.execute(this::refresh));
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void track(Incident incident) {
+        responses.put(incident.id, incident);
+        scheduler.execute(this::refresh);
+    }
+
+    int nearestNode(double lat, double lon) {
+        return nodes.nearest(lat, lon);
+    }
+
+    private void refresh() {
+        long started = Instrumentation.start();
+        // Units that have arrived (or been released) no longer need an ETA
+        responses.values().removeIf(inc -> roster.stateFor(inc.unitId, inc.id) != UnitRoster.EN_ROUTE);
+
+        Set<Integer> targets = ConcurrentHashMap.newKeySet();
+        for (Incident incident : responses.values()) {
+            targets.add(nearestNode(incident.lat, incident.lon));
+        }
+        ArrayList<Callable<ShortestPathTree>> lookups = new ArrayList<>();
+        for (int target : targets) {
+            lookups.add(() -> routes.get(target));
+        }
+
+        HashMap<Integer, ShortestPathTree> trees = new HashMap<>();
+        try {
+            for (Future<ShortestPathTree> result : workers.invokeAll(lookups)) {
+                ShortestPathTree tree = result.get();
+                trees.put(tree.root, tree);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            Log.error("ETA", "Route computation failed", e.getCause());
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (Incident incident : responses.values()) {
+            ShortestPathTree tree = trees.get(nearestNode(incident.lat, incident.lon));
+            if (tree != null) publish(incident, tree, now);
+        }
+        Instrumentation.ETA_REFRESH.stop(started);
+    }
+
+    private void publish(Incident incident, ShortestPathTree tree, long now) {
+        double lat, lon;
+        VehicleFix fix = telemetry.latest(incident.unitId);
+        if (fix != null) {
+            double[] pos = fix.positionAt(now);
+            lat = pos[0];
+            lon = pos[1];
+        } else {
+            FireStation station = stations.get(incident.respondingStation);
+            lat = station.latitude;
+            lon = station.longitude;
+        }
+
+        int start = nearestNode(lat, lon);
+        if (!tree.reachable(start)) {
+            incident.route = new int[0];
+            incident.etaMinutes = -1;
+            return;
+        }
+        double km = straightKm(lat, lon, nodeLats[start], nodeLons[start])
+                  + tree.dist[start] / 1000.0
+                  + straightKm(nodeLats[tree.root], nodeLons[tree.root], incident.lat, incident.lon);
+        incident.route = tree.pathFrom(start);
+        incident.etaMinutes = (float)(km / AVERAGE_SPEED_KMH * 60.0);
+    }
+
+    private static double straightKm(double lat1, double lon1, double lat2, double lon2) {
+        return Math.hypot(lat1 - lat2, lon1 - lon2) * 111;
+    }
+}
+
+class SocketClient {
+    private Socket socket;
+    private PrintWriter out;
+    private BufferedReader in;
+    private String serverIP = "127.0.0.1";
+    private int serverPort = 5000;
+    private boolean isConnected = false;
+    private ClientListener listener;
+    private volatile TelemetryPipeline telemetry;
+
+    public interface ClientListener {
+        void onConnected(String welcomeMessage);
+        void onDisconnected();
+        void onMessageReceived(String message);
+        void onError(String error);
+    }
+
+    public SocketClient(String serverIP, int serverPort, ClientListener listener) {
         this.serverIP = serverIP;
         this.serverPort = serverPort;
         this.listener = listener;
@@ -969,7 +5896,7 @@ class SocketClient {
 
     public boolean connect() {
         try {
-            System.out.println("[CLIENT] Connecting to " + serverIP + ":" + serverPort);
+            Log.info("CLIENT", "Connecting", "server", serverIP, "port", serverPort);
             
             socket = new Socket(serverIP, serverPort);
             socket.setSoTimeout(5000); // 5 second timeout
@@ -977,20 +5904,20 @@ class SocketClient {
             in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
             
             isConnected = true;
-            System.out.println("[CLIENT] Socket created");
+            Log.info("CLIENT", "Socket created");
             
             // Read welcome message with timeout in a separate thread
             new Thread(() -> {
                 try {
                     String welcome = in.readLine();
                     if (welcome != null) {
-                        System.out.println("[CLIENT] Welcome: " + welcome);
+                        Log.info("CLIENT", "Welcome received", "message", welcome);
                         if (listener != null) {
                             listener.onConnected(welcome);
                         }
                     }
                 } catch (IOException e) {
-                    System.out.println("[CLIENT] No welcome message received (timeout)");
+                    Log.info("CLIENT", "No welcome message received (timeout)");
                 }
             }).start();
 
@@ -1000,14 +5927,22 @@ class SocketClient {
                     socket.setSoTimeout(0); // Remove timeout for long-running listener
                     String message;
                     while ((message = in.readLine()) != null && isConnected) {
-                        System.out.println("[CLIENT] Message: " + message);
+                        // Position reports are high-volume and go straight to the telemetry pipeline
+                        TelemetryPipeline sink = telemetry;
+                        if (sink != null && message.startsWith("GPS|")) {
+                            Instrumentation.SOCKET_RECEIVED_GPS.inc();
+                            sink.publish(message);
+                            continue;
+                        }
+                        Instrumentation.SOCKET_RECEIVED_OTHER.inc();
+                        Log.debug("CLIENT", "Received", "message", message);
                         if (listener != null) {
                             listener.onMessageReceived(message);
                         }
                     }
                 } catch (IOException e) {
                     if (isConnected) {
-                        System.out.println("[CLIENT] Connection lost");
+                        Log.warn("CLIENT", "Connection lost");
                         if (listener != null) {
                             listener.onError("Connection lost");
                         }
@@ -1018,7 +5953,7 @@ class SocketClient {
             
             return true;
         } catch (IOException e) {
-            System.out.println("[CLIENT] Connection failed: " + e.getMessage());
+            Log.error("CLIENT", "Connection failed", "reason", e.getMessage());
             if (listener != null) {
                 listener.onError("Failed to connect: " + e.getMessage());
             }
@@ -1028,13 +5963,20 @@ class SocketClient {
 
     public synchronized void sendMessage(String message) {
         if (isConnected && out != null) {
+            long started = Instrumentation.start();
             out.println(message);
-            System.out.println("[CLIENT] Sent: " + message);
+            Instrumentation.SOCKET_SEND.stop(started);
+            Instrumentation.SOCKET_SENT.inc();
+            Log.debug("CLIENT", "Sent", "message", message);
         } else {
-            System.out.println("[CLIENT] Not connected");
+            Instrumentation.SOCKET_UNSENT.inc();
         }
     }
 
+    public void setTelemetry(TelemetryPipeline telemetry) {
+        this.telemetry = telemetry;
+    }
+
     public void reportIncident(int stationId, int severity, double lat, double lon) {
         String message = String.format("INCIDENT|%d|%d|%.4f|%.4f", stationId, severity, lat, lon);
         sendMessage(message);
@@ -1055,12 +5997,12 @@ class SocketClient {
             if (socket != null && !socket.isClosed()) {
                 socket.close();
             }
-            System.out.println("[CLIENT] Disconnected");
+            Log.info("CLIENT", "Disconnected");
             if (listener != null) {
                 listener.onDisconnected();
             }
         } catch (IOException e) {
-            System.out.println("Error: " + e.getMessage());
+            Log.warn("CLIENT", "Error while disconnecting", "reason", e.getMessage());
         }
     }
 